@@ -9,9 +9,14 @@ import android.net.Uri;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
+import android.view.View;
+
 import android.widget.Toast;
 import android.widget.ImageView;
+import android.widget.TextView;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.FileNotFoundException;
 
@@ -28,17 +33,22 @@ import org.opencv.core.MatOfInt;
 import org.opencv.core.CvType;
 import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.MatPool;
 import org.opencv.core.Point;
 import org.opencv.core.Point3;
 import org.opencv.core.Scalar;
 import org.opencv.imgproc.Imgproc;
 
-import org.opencv.objdetect.ArucoDetector;
 import org.opencv.objdetect.Dictionary;
 import org.opencv.objdetect.DetectorParameters;
 import org.opencv.objdetect.Objdetect;
 import android.util.Log;
 
+import mg.rivolink.app.aruco.batch.BatchDetector;
+import mg.rivolink.app.aruco.detection.DetectionResult;
+import mg.rivolink.app.aruco.detection.LargeImageDetector;
+import mg.rivolink.app.aruco.detection.MarkerDetector;
+import mg.rivolink.app.aruco.pose.MarkerSizeRegistry;
 import mg.rivolink.app.aruco.utils.CameraParameters;
 
 public class ImageActivity extends Activity {
@@ -46,12 +56,41 @@ public class ImageActivity extends Activity {
 	private static Mat cameraMatrix;
 	private static Mat distCoeffs;
 
+	// Largest side of the bitmap shown, whatever the size of the image
+	private static final int MAX_DISPLAY_SIZE = 2048;
+
 	private ImageView imageView;
+	private TextView statusView;
+	private Uri imageUri;
 	private Bitmap originalBMP;
 
+	// Image-sized buffers kept between detections, freed in onDestroy
+	private final MatPool matPool = new MatPool(1);
+
+	// Built on the first detection and reused, released in onDestroy
+	private MarkerDetector markerDetector;
+	private LargeImageDetector largeImageDetector;
+	private final DetectionResult detection = new DetectionResult();
+
+	// Guarded by this, held only to flip them: a detection running when the
+	// activity is destroyed releases the detectors itself once it ends, so
+	// the UI thread never waits for it
+	private boolean detecting;
+	private boolean destroyed;
+
+	// Set when several images were shared, processed by batchDetector
+	private List<Uri> batchSources;
+	private BatchDetector batchDetector;
+
 	private void initializeOpenCV() {
 		String message = "";
 
+		if(batchSources != null){
+			if(batchDetector == null)
+				startBatch();
+			return;
+		}
+
 		if(loadCameraParams()){
 			message = getString(R.string.info_detecting_markers);
 			detectMarkersAsync();
@@ -69,17 +108,53 @@ public class ImageActivity extends Activity {
 		setContentView(R.layout.image_layout);
 
 		imageView = findViewById(R.id.image_view);
+		statusView = findViewById(R.id.status_view);
+
+		if(Intent.ACTION_SEND_MULTIPLE.equals(getIntent().getAction())){
+			batchSources = getIntent().getParcelableArrayListExtra(Intent.EXTRA_STREAM);
+			if(batchSources == null)
+				batchSources = new ArrayList<>();
+			return;
+		}
 
 		if(getIntent().getData() != null) try {
-			Uri uri=getIntent().getData();
-			InputStream is = getContentResolver().openInputStream(uri);
-			imageView.setImageBitmap(originalBMP = BitmapFactory.decodeStream(is));
+			imageUri = getIntent().getData();
+			imageView.setImageBitmap(originalBMP = decodeForDisplay(imageUri));
 		}
 		catch(Exception e){
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Decodes the image reduced by a power of two to at most
+	 * MAX_DISPLAY_SIZE pixels per side, detection reads the original.
+	 */
+	private Bitmap decodeForDisplay(Uri uri) throws IOException {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		InputStream is = getContentResolver().openInputStream(uri);
+		try {
+			BitmapFactory.decodeStream(is, null, options);
+		}
+		finally {
+			is.close();
+		}
+
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = 1;
+		while(Math.max(options.outWidth, options.outHeight)/options.inSampleSize > MAX_DISPLAY_SIZE)
+			options.inSampleSize *= 2;
+
+		is = getContentResolver().openInputStream(uri);
+		try {
+			return BitmapFactory.decodeStream(is, null, options);
+		}
+		finally {
+			is.close();
+		}
+	}
+
 	@Override
 	protected void onResume(){
 		super.onResume();
@@ -102,6 +177,76 @@ public class ImageActivity extends Activity {
 		}
 	}
 
+	@Override
+	protected void onDestroy(){
+		super.onDestroy();
+
+		if(batchDetector != null)
+			batchDetector.cancel();
+
+		boolean idle;
+		synchronized(this){
+			destroyed = true;
+			idle = !detecting;
+		}
+		if(idle)
+			releaseDetector();
+	}
+
+	// Only called once no detection can run, see onDestroy
+	private void releaseDetector(){
+		matPool.clear();
+		if(markerDetector != null){
+			largeImageDetector.release();
+			markerDetector.release();
+			largeImageDetector = null;
+			markerDetector = null;
+		}
+	}
+
+	private void startBatch(){
+		File dir = getExternalFilesDir(null);
+		if(dir == null)
+			dir = getFilesDir();
+		final File output = new File(dir, "aruco_batch_"+System.currentTimeMillis()+".csv");
+
+		batchDetector = new BatchDetector(getContentResolver(), Objdetect.DICT_6X6_50, new MarkerSizeRegistry(MainActivity.SIZE));
+		batchDetector.setOutput(output);
+		batchDetector.setListener(new BatchDetector.Listener(){
+			@Override
+			public void onImageDone(BatchDetector.ImageResult result, BatchDetector.Progress progress){
+				String last = result.error != null ? result.error : result.size()+" markers";
+				statusView.setText(progress+"\n#"+result.index+": "+last);
+			}
+
+			@Override
+			public void onFinished(BatchDetector.Progress progress){
+				statusView.setText(progress.toString());
+				String message = progress.outputError != null
+					? getString(R.string.error_batch_save, output.getPath(), progress.outputError.getMessage())
+					: getString(R.string.info_batch_saved, output.getPath());
+				Toast.makeText(ImageActivity.this, message, Toast.LENGTH_LONG).show();
+			}
+		});
+
+		statusView.setVisibility(View.VISIBLE);
+		statusView.setOnClickListener(new View.OnClickListener(){
+			@Override
+			public void onClick(View view){
+				batchDetector.cancel();
+			}
+		});
+
+		try {
+			batchDetector.start(batchSources);
+			Toast.makeText(this, getString(R.string.info_batch_cancel), Toast.LENGTH_SHORT).show();
+		}
+		catch(IOException e){
+			Log.e("ArucoDebug", "ImageActivity: Cannot start batch: " + e.getMessage(), e);
+			Toast.makeText(this, getString(R.string.error_batch_output), Toast.LENGTH_LONG).show();
+		}
+	}
+
 	private boolean loadCameraParams(){
 		int width = originalBMP != null ? originalBMP.getWidth() : 640;
 		int height = originalBMP != null ? originalBMP.getHeight() : 480;
@@ -118,7 +263,20 @@ public class ImageActivity extends Activity {
 
 			@Override
 			public void run() {
-				bitmap = detectMarkers(originalBMP);
+				if(!beginDetection())
+					return;
+
+				boolean release;
+				try {
+					bitmap = detectMarkers(originalBMP);
+				}
+				finally {
+					release = endDetection();
+				}
+				if(release){
+					releaseDetector();
+					return;
+				}
 
 				ImageActivity.this.runOnUiThread(new Runnable(){
 					@Override
@@ -133,37 +291,85 @@ public class ImageActivity extends Activity {
 		}.start();
 	}
 
-	private static Bitmap detectMarkers(Bitmap original){
-		Bitmap bitmap = null;
+	// Waits for a previous detection, on the detection thread; false once
+	// the activity is destroyed
+	private synchronized boolean beginDetection(){
+		while(detecting && !destroyed){
+			try {
+				wait();
+			}
+			catch(InterruptedException e){
+				return false;
+			}
+		}
+		if(destroyed)
+			return false;
+		detecting = true;
+		return true;
+	}
+
+	// True when the activity was destroyed meanwhile, the caller then
+	// releases the detectors
+	private synchronized boolean endDetection(){
+		detecting = false;
+		notifyAll();
+		return destroyed;
+	}
 
-		Mat rgba = new Mat();
+	private Bitmap detectMarkers(Bitmap original){
+		if(original == null)
+			return null;
+
+		if(markerDetector == null){
+			Dictionary dictionary = Objdetect.getPredefinedDictionary(Objdetect.DICT_6X6_50);
+			markerDetector = new MarkerDetector(dictionary, new DetectorParameters());
+			largeImageDetector = new LargeImageDetector(markerDetector);
+		}
+
+		// Detection decodes the original itself, reduced or in tiles,
+		// instead of using the display bitmap
+		try {
+			largeImageDetector.detect(LargeImageDetector.fromUri(getContentResolver(), imageUri), detection);
+		}
+		catch(IOException e){
+			Log.e("ArucoDebug", "ImageActivity: Cannot decode image: " + e.getMessage(), e);
+			return null;
+		}
+		if(detection.isEmpty())
+			return null;
+
+		int width = original.getWidth();
+		int height = original.getHeight();
+
+		// Original coordinates to display ones
+		float scaleX = width/(float)largeImageDetector.getWidth();
+		float scaleY = height/(float)largeImageDetector.getHeight();
+		float[] points = detection.getCorners();
+		for(int i = 0; i < detection.size()*DetectionResult.CORNER_FLOATS; i += 2){
+			points[i] *= scaleX;
+			points[i + 1] *= scaleY;
+		}
+
+		Mat rgba = matPool.acquire(height, width, CvType.CV_8UC4);
 		Utils.bitmapToMat(original, rgba);
 
-		Mat rgb = new Mat();
+		Mat rgb = matPool.acquire(height, width, CvType.CV_8UC3);
 		Imgproc.cvtColor(rgba, rgb, Imgproc.COLOR_RGBA2RGB);
 
-		Mat gray = new Mat();
-		Imgproc.cvtColor(rgba, gray, Imgproc.COLOR_RGBA2GRAY);
-
 		MatOfInt ids = new MatOfInt();
 		List<Mat> corners = new LinkedList<>();
-		Dictionary dictionary = Objdetect.getPredefinedDictionary(Objdetect.DICT_6X6_50);
-		DetectorParameters parameters = new DetectorParameters();
-		ArucoDetector arucoDetector = new ArucoDetector(dictionary, parameters);
-
-		arucoDetector.detectMarkers(gray, corners, ids);
+		detection.toMats(corners, ids);
 
-		if(corners.size() > 0){
-			Objdetect.drawDetectedMarkers(rgb, corners, ids);
-			bitmap=Bitmap.createBitmap(rgb.width(), rgb.height(), Bitmap.Config.RGB_565);
-			Utils.matToBitmap(rgb, bitmap);
-		}
+		Objdetect.drawDetectedMarkers(rgb, corners, ids);
+		Bitmap bitmap = Bitmap.createBitmap(rgb.width(), rgb.height(), Bitmap.Config.RGB_565);
+		Utils.matToBitmap(rgb, bitmap);
 
-		rgba.release();
-		rgb.release();
-		gray.release();
+		matPool.release(rgba);
+		matPool.release(rgb);
 		ids.release();
 
+		for(Mat corner : corners)
+			corner.release();
 		corners.clear();
 
 		return bitmap;
@@ -8,6 +8,7 @@ import android.content.DialogInterface;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 
+import android.view.View;
 import android.view.WindowManager;
 import android.widget.Toast;
 import android.Manifest;
@@ -16,23 +17,40 @@ import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
 
+import mg.rivolink.app.aruco.detection.DetectionResult;
+import mg.rivolink.app.aruco.detection.MarkerDetector;
+import mg.rivolink.app.aruco.detection.MotionGate;
+import mg.rivolink.app.aruco.mapping.MarkerMap;
+import mg.rivolink.app.aruco.mapping.MarkerMapBuilder;
+import mg.rivolink.app.aruco.pose.BoardPoseEstimator;
+import mg.rivolink.app.aruco.pose.CharucoPoseEstimator;
+import mg.rivolink.app.aruco.pose.MarkerPoseEstimator;
+import mg.rivolink.app.aruco.pose.MarkerSizeRegistry;
+import mg.rivolink.app.aruco.pose.PoseMath;
+import mg.rivolink.app.aruco.pose.PoseQuality;
 import mg.rivolink.app.aruco.renderer.Renderer3D;
+import mg.rivolink.app.aruco.tracking.MarkerTracker;
+import mg.rivolink.app.aruco.tracking.TrackManager;
 import mg.rivolink.app.aruco.utils.CameraParameters;
+import mg.rivolink.app.aruco.utils.Undistorter;
 import mg.rivolink.app.aruco.view.PortraitCameraView;
 import mg.rivolink.app.aruco.view.PortraitCameraLayout;
 
 import org.opencv.android.CameraBridgeViewBase;
 import org.opencv.android.CameraBridgeViewBase.CvCameraViewListener2;
 import org.opencv.android.OpenCVLoader;
-import org.opencv.objdetect.ArucoDetector;
+import org.opencv.objdetect.CharucoBoard;
 import org.opencv.objdetect.DetectorParameters;
+import org.opencv.objdetect.GridBoard;
 import org.opencv.objdetect.Dictionary;
 import org.opencv.objdetect.Objdetect;
 import android.util.Log;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import android.content.pm.ApplicationInfo;
 import org.opencv.calib3d.Calib3d;
 import org.opencv.core.CvType;
@@ -41,32 +59,138 @@ import org.opencv.core.MatOfDouble;
 import org.opencv.core.MatOfInt;
 import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.MatScope;
 import org.opencv.core.Point;
-import org.opencv.core.Point3;
 import org.opencv.core.Scalar;
+import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
 import org.rajawali3d.view.SurfaceView;
 
-public class MainActivity extends AppCompatActivity implements CvCameraViewListener2, PortraitCameraView.CameraIntrinsicsListener {
+public class MainActivity extends AppCompatActivity implements CvCameraViewListener2, PortraitCameraView.CameraIntrinsicsListener, TrackManager.Listener {
 
 	public static final float SIZE = 0.04f;
+
+	public static final int MODE_MARKERS = 0;
+	public static final int MODE_CHARUCO = 1;
+	public static final int MODE_GRID_BOARD = 2;
+	public static final int MODE_MAPPING = 3;
+
+	// Initial tracking mode, one of the MODE_ constants; long press to change
+	public static final String EXTRA_TRACKING_MODE = "mg.rivolink.app.aruco.TRACKING_MODE";
+
+	// Marker IDs to track, such as "0-49,60"; every ID when absent
+	public static final String EXTRA_ALLOWED_IDS = "mg.rivolink.app.aruco.ALLOWED_IDS";
+
+	private static final Scalar AXIS_X_COLOR = new Scalar(0, 0, 255);
+	private static final Scalar AXIS_Y_COLOR = new Scalar(0, 255, 0);
+	private static final Scalar AXIS_Z_COLOR = new Scalar(255, 0, 0);
+	private static final Scalar STATUS_COLOR = new Scalar(255, 255, 0);
+	private static final Scalar CUBE_COLOR = new Scalar(0, 255, 0);
+	private static final Scalar PREDICTED_CUBE_COLOR = new Scalar(128, 128, 128);
+
+	// Scene units per metre for the 3D renderer
+	private static final double SCENE_SCALE = 50;
+
+	// Motion gate change (mean gray levels) that calls for a full detection
+	private static final double KEYFRAME_MIN_CHANGE = 8.0;
+
+	// Above this many markers per frame poses are solved in Java, see estimatePosesInJava
+	private static final int JAVA_POSE_MIN_MARKERS = 16;
+
+	private static final String MAP_FILE = "marker_map.bin";
+
+	// Poses worse than this are not added to the marker map
+	private static final double MAPPING_MAX_RMS_ERROR = 2.0;
+	private static final double MAPPING_MIN_AREA = 400;
+	private static final double MAPPING_MAX_VIEWING_ANGLE = Math.toRadians(70);
+	private static final String MARKER_SIZES_FILE = "marker_sizes.txt";
+
+	public static final int BOARD_SQUARES_X = 5;
+	public static final int BOARD_SQUARES_Y = 7;
+	public static final float BOARD_SQUARE_LENGTH = 0.04f;
+	public static final float BOARD_MARKER_LENGTH = 0.02f;
+
+	public static final int GRID_MARKERS_X = 5;
+	public static final int GRID_MARKERS_Y = 7;
+	public static final float GRID_MARKER_LENGTH = 0.032f;
+	public static final float GRID_MARKER_SEPARATION = 0.003f;
+
 	private static final int CAMERA_PERMISSION_REQUEST = 1;
 	
-	private Mat cameraMatrix;
-	private MatOfDouble distCoeffs;
+	// Replaced by the intrinsics callback, then intrinsicsVersion moves
+	private volatile Mat cameraMatrix;
+	private volatile MatOfDouble distCoeffs;
+	private volatile int intrinsicsVersion = 0;
 
 	private Mat rgb;
 	private Mat gray;
 
-	private Mat rvecs;
-	private Mat tvecs;
+	private List<Mat> rvecs;
+	private List<Mat> tvecs;
 
 	private MatOfInt ids;
 	private List<Mat> corners;
+	private final DetectionResult detection = new DetectionResult();
 	private Dictionary dictionary;
 	private DetectorParameters parameters;
-	private ArucoDetector arucoDetector;
+	private MarkerDetector markerDetector;
+	private MotionGate motionGate;
+	private MarkerTracker markerTracker;
+	private TrackManager trackManager;
+	private MarkerPoseEstimator markerPoseEstimator;
+	private MarkerSizeRegistry markerSizes;
+	// Camera thread only, rebuilt when intrinsicsVersion moves
+	private Undistorter undistorter;
+	private int undistorterVersion;
+	private Mat undistortedCorners;
+	private boolean undistortDisplay = false;
+	private Mat displayFrame;
+
+	private int[] poseIds = new int[0];
+	private double[] poseRvecs = new double[0];
+	private double[] poseTvecs = new double[0];
+	private final double[] poseBuffer = new double[3];
+	private PoseQuality[] poseQualities = new PoseQuality[0];
+	private int[] mapIds = new int[0];
+	private double[] mapRvecs = new double[0];
+	private double[] mapTvecs = new double[0];
+	private final double[] intrinsicsBuffer = new double[9];
+	private final float[] cornerValues = new float[8];
+	private float[] cornerBuffer = new float[0];
+
+	private final double[] modelRvec = new double[3];
+	private final double[] modelTvec = new double[3];
+	private final double[] modelTransform = new double[PoseMath.TRANSFORM_SIZE];
+	private final double[] modelQuaternion = new double[4];
+
+	// Reused by drawAxis and draw3dCube
+	private final MatOfPoint3f objectPoints = new MatOfPoint3f();
+	private final MatOfPoint2f projectedPoints = new MatOfPoint2f();
+	private final float[] axisPoints = new float[12];
+	private final float[] cubePoints = new float[24];
+	private final float[] projectedBuffer = new float[16];
+	private final Point lineStart = new Point();
+	private final Point lineEnd = new Point();
+	private final Point statusOrigin = new Point(16, 40);
+	private Mat trackRvec;
+	private Mat trackTvec;
+
+	// Set from the UI thread, read once per camera frame
+	private volatile int trackingMode = MODE_MARKERS;
+	private int activeMode = MODE_MARKERS;
+	private boolean modelVisible = false;
+	private CharucoPoseEstimator charucoEstimator;
+	private BoardPoseEstimator gridEstimator;
+	private Mat boardRvec;
+	private Mat boardTvec;
+
+	// Null once shut down in onDestroy
+	private volatile MarkerMapBuilder mapBuilder;
+	private MarkerMap localizationMap;
+	private BoardPoseEstimator mapEstimator;
+	private Mat mapRvec;
+	private Mat mapTvec;
 
 	private Renderer3D renderer;
 	private CameraBridgeViewBase camera;
@@ -132,17 +256,67 @@ public class MainActivity extends AppCompatActivity implements CvCameraViewListe
         camera.setCvCameraViewListener(this);
 
 		renderer = new Renderer3D(this);
+		trackManager = new TrackManager();
+		trackManager.setListener(this);
+
+		markerSizes = loadMarkerSizes();
+		mapBuilder = loadMap();
 
 		SurfaceView surface = (SurfaceView)findViewById(R.id.main_surface);
 		surface.setTransparent(true);
 		surface.setSurfaceRenderer(renderer);
 
+		try {
+			setTrackingMode(getIntent().getIntExtra(EXTRA_TRACKING_MODE, MODE_MARKERS));
+		} catch (IllegalArgumentException e) {
+			Log.w("ArucoDebug", e.getMessage());
+		}
+
+		surface.setOnLongClickListener(new View.OnLongClickListener() {
+			@Override
+			public boolean onLongClick(View view) {
+				showTrackingModeDialog();
+				return true;
+			}
+		});
+		Toast.makeText(this, getString(R.string.info_tracking_mode), Toast.LENGTH_SHORT).show();
+
+	}
+
+	@Override
+	public void onMarkerAppeared(TrackManager.Track track) {
+		Log.d("ArucoDebug", "Marker appeared: " + track.id);
+		showModel(true);
+	}
+
+	@Override
+	public void onMarkerDisappeared(TrackManager.Track track) {
+		Log.d("ArucoDebug", "Marker disappeared: " + track.id);
+		showModel(!trackManager.getConfirmedTracks().isEmpty());
+	}
+
+	// Camera thread only; posts to the renderer when visibility changes
+	private void showModel(final boolean visible) {
+		if (visible == modelVisible)
+			return;
+
+		modelVisible = visible;
+		runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				renderer.setModelVisible(visible);
+			}
+		});
 	}
 
 	@Override
 	public void onCameraIntrinsicsAvailable(Mat cameraMatrix, MatOfDouble distCoeffs) {
 		this.cameraMatrix = cameraMatrix;
 		this.distCoeffs = distCoeffs;
+
+		// The camera thread rebuilds its undistorter on the next frame; it
+		// is never touched from here, a frame may be using it
+		intrinsicsVersion++;
 	}
 
 	private void logNativeLibraries() {
@@ -235,12 +409,19 @@ public class MainActivity extends AppCompatActivity implements CvCameraViewListe
 
         if(camera != null)
             camera.disableView();
+
+		saveMap();
     }
 
 	@Override
     public void onDestroy(){
         super.onDestroy();
 
+		MarkerMapBuilder builder = mapBuilder;
+		mapBuilder = null;
+		if (builder != null)
+			builder.shutdown();
+
         if (camera != null)
             camera.disableView();
     }
@@ -251,13 +432,18 @@ public class MainActivity extends AppCompatActivity implements CvCameraViewListe
 		try {
 			rgb = new Mat();
 			Log.d("ArucoDebug", "RGB Mat created");
-			corners = new LinkedList<>();
+			corners = new ArrayList<>();
+			ids = new MatOfInt();
 			Log.d("ArucoDebug", "Corners list created");
+			rvecs = new ArrayList<>();
+			tvecs = new ArrayList<>();
+			motionGate = new MotionGate();
 			parameters = new DetectorParameters();
 			Log.d("ArucoDebug", "Detector parameters created");
 			dictionary = Objdetect.getPredefinedDictionary(Objdetect.DICT_6X6_50);
 			Log.d("ArucoDebug", "Dictionary created");
-			arucoDetector = new ArucoDetector(dictionary, parameters);
+			markerDetector = createMarkerDetector();
+			markerTracker = new MarkerTracker(markerDetector);
 			Log.d("ArucoDebug", "ArUco detector created successfully");
 		} catch (Exception e) {
 			Log.e("ArucoDebug", "Error in onCameraViewStarted: " + e.getMessage(), e);
@@ -279,38 +465,107 @@ public class MainActivity extends AppCompatActivity implements CvCameraViewListe
 			}
 			if (corners == null) {
 				Log.w("ArucoDebug", "Corners list was null, creating new one");
-				corners = new LinkedList<>();
+				corners = new ArrayList<>();
 			}
-			if (arucoDetector == null) {
+			if (ids == null)
+				ids = new MatOfInt();
+			if (markerDetector == null) {
 				Log.w("ArucoDebug", "ArUco detector was null, recreating");
 				parameters = new DetectorParameters();
 				dictionary = Objdetect.getPredefinedDictionary(Objdetect.DICT_6X6_50);
-				arucoDetector = new ArucoDetector(dictionary, parameters);
+				markerDetector = createMarkerDetector();
+				markerTracker = new MarkerTracker(markerDetector);
+			}
+			
+			if (motionGate == null) {
+				motionGate = new MotionGate();
+				rvecs = new ArrayList<>();
+				tvecs = new ArrayList<>();
 			}
 			
+			int version = intrinsicsVersion;
+			if (undistorter == null || version != undistorterVersion) {
+				if (undistorter != null)
+					undistorter.release();
+				undistorter = new Undistorter(cameraMatrix, distCoeffs);
+				undistorterVersion = version;
+			}
+
 			Imgproc.cvtColor(inputFrame.rgba(), rgb, Imgproc.COLOR_RGBA2RGB);
 			gray = inputFrame.gray();
 
-			ids = new MatOfInt();
-			corners.clear();
+			int mode = trackingMode;
+			if (mode != activeMode) {
+				// Fresh detection, no track carried over from the previous mode
+				activeMode = mode;
+				motionGate.invalidate();
+				markerTracker.invalidate();
+				trackManager.clear();
+				showModel(false);
+			}
+
+			if (mode == MODE_CHARUCO) {
+				estimateBoardPose();
+				return present(rgb);
+			}
 
-			arucoDetector.detectMarkers(gray, corners, ids);
+			// Static scene: reuse the previous detections and poses
+			if(motionGate.shouldDetect(gray)){
+				// Large scene changes and lost markers skip optical-flow tracking
+				if (motionGate.getLastChange() > KEYFRAME_MIN_CHANGE || trackManager.getMissedCount() > 0)
+					markerTracker.invalidate();
+
+				// Full detection on keyframes, optical-flow tracking in between
+				markerTracker.track(gray, detection);
+
+				// Mat view for drawing and the board solvers, reusing last frame's Mats
+				detection.toMats(corners, ids);
+
+				if (mode == MODE_GRID_BOARD) {
+					estimateGridPose();
+				} else {
+					estimatePoses();
+
+					if (mode == MODE_MAPPING)
+						updateMap();
+				}
+			}
 
 			if(corners.size()>0){
-				Objdetect.drawDetectedMarkers(rgb, corners, ids);
-
-				// Estimate pose for each detected marker using solvePnP
-				for(int i = 0; i < corners.size(); i++) {
-					try {
-						Mat markerCorners = corners.get(i);
-						estimateMarkerPose(markerCorners, cameraMatrix, distCoeffs, rgb, i);
-					} catch (Exception e) {
-						Log.e("ArucoDebug", "Error estimating pose for marker " + i + ": " + e.getMessage());
-					}
+				// Frees the vector Mat the wrapper builds from the corner list
+				MatScope scope = MatScope.open();
+				try {
+					Objdetect.drawDetectedMarkers(rgb, corners, ids);
+				} finally {
+					scope.close();
 				}
 			}
 
-			return rgb;
+			if (mode == MODE_GRID_BOARD) {
+				for(int i = 0; i < rvecs.size(); i++) {
+					Mat rvec = rvecs.get(i);
+					Mat tvec = tvecs.get(i);
+					float length = markerSizes.getDefaultSize();
+
+					// Draw 3D axis
+					drawAxis(rgb, cameraMatrix, distCoeffs, rvec, tvec, length);
+
+					// Draw 3D cube
+					draw3dCube(rgb, cameraMatrix, distCoeffs, rvec, tvec, length, CUBE_COLOR);
+
+					// Send pose to 3D renderer
+					transformModel(tvec, rvec);
+				}
+			} else {
+				drawTracks();
+			}
+
+			// Markers seen but outside the allow-list
+			if (markerDetector.getAllowedIds() != null && markerDetector.getRejectedCount() > 0)
+				Imgproc.putText(rgb, "Ignored: " + markerDetector.getRejectedCount(), statusOrigin,
+					Imgproc.FONT_HERSHEY_SIMPLEX, 1.0, STATUS_COLOR, 2);
+
+			return present(rgb);
 		} catch (Exception e) {
 			Log.e("ArucoDebug", "Error in onCameraFrame: " + e.getMessage(), e);
 			return inputFrame.rgba();
@@ -325,164 +580,505 @@ public class MainActivity extends AppCompatActivity implements CvCameraViewListe
 				rgb.release();
 				Log.d("ArucoDebug", "RGB Mat released");
 			}
+			if (corners != null) {
+				for (Mat markerCorners : corners)
+					markerCorners.release();
+				corners.clear();
+			}
+			if (ids != null) {
+				ids.release();
+				ids = null;
+			}
+			detection.clear();
+			if (motionGate != null) {
+				motionGate.release();
+				motionGate = null;
+			}
+			if (markerTracker != null) {
+				markerTracker.release();
+				markerTracker = null;
+			}
+			if (markerPoseEstimator != null) {
+				markerPoseEstimator.release();
+				markerPoseEstimator = null;
+			}
+			if (charucoEstimator != null) {
+				charucoEstimator.release();
+				charucoEstimator = null;
+			}
+			if (gridEstimator != null) {
+				gridEstimator.release();
+				gridEstimator = null;
+			}
+			if (undistorter != null) {
+				undistorter.release();
+				undistorter = null;
+			}
+			if (undistortedCorners != null) {
+				undistortedCorners.release();
+				undistortedCorners = null;
+			}
+			if (displayFrame != null) {
+				displayFrame.release();
+				displayFrame = null;
+			}
+			if (trackRvec != null) {
+				trackRvec.release();
+				trackTvec.release();
+				trackRvec = null;
+				trackTvec = null;
+			}
 		} catch (Exception e) {
 			Log.e("ArucoDebug", "Error in onCameraViewStopped: " + e.getMessage(), e);
 		}
 	}
 	
-	private void estimateMarkerPose(Mat markerCorners, Mat cameraMatrix, MatOfDouble distCoeffs, Mat frame, int markerIndex) {
+	private MarkerDetector createMarkerDetector() {
+		MarkerDetector detector = new MarkerDetector(dictionary, parameters);
+
+		String allowed = getIntent().getStringExtra(EXTRA_ALLOWED_IDS);
 		try {
-			// Create 3D object points for a marker (SIZE x SIZE square at z=0)
-			double halfSize = SIZE / 2.0;
-			List<Point3> objectPoints = new ArrayList<>();
-			objectPoints.add(new Point3(-halfSize, -halfSize, 0));
-			objectPoints.add(new Point3(halfSize, -halfSize, 0));
-			objectPoints.add(new Point3(halfSize, halfSize, 0));
-			objectPoints.add(new Point3(-halfSize, halfSize, 0));
-			
-			MatOfPoint3f objectPointsMat = new MatOfPoint3f();
-			objectPointsMat.fromList(objectPoints);
-			
-			// Convert marker corners to the right format
-			// markerCorners is a Mat with 4 corner points (1x4x2 CV_32FC2)
-			Point[] cornerPoints = new Point[4];
-			for (int j = 0; j < 4; j++) {
-				double[] pt = markerCorners.get(0, j);
-				cornerPoints[j] = new Point(pt[0], pt[1]);
-			}
-			MatOfPoint2f imagePointsMat = new MatOfPoint2f(cornerPoints);
-			
-			// Solve PnP to get pose
-			Mat rvec = new Mat();
-			Mat tvec = new Mat();
-			
-			boolean success = Calib3d.solvePnP(objectPointsMat, imagePointsMat, cameraMatrix, distCoeffs, rvec, tvec);
-			
-			if (success) {
-				// Draw 3D axis
-				drawAxis(frame, cameraMatrix, distCoeffs, rvec, tvec, SIZE);
-				
-				// Draw 3D cube
-				draw3dCube(frame, cameraMatrix, distCoeffs, rvec, tvec, new Scalar(0, 255, 0));
-				
-				// Send pose to 3D renderer
-				transformModel(tvec, rvec);
+			detector.setAllowedIds(MarkerDetector.parseIds(allowed));
+		} catch (IllegalArgumentException e) {
+			Log.w("ArucoDebug", "Ignoring allowed ids '" + allowed + "': " + e.getMessage());
+		}
+		return detector;
+	}
+
+	public void setTrackingMode(int mode) {
+		switch (mode) {
+			case MODE_MARKERS:
+			case MODE_CHARUCO:
+			case MODE_GRID_BOARD:
+			case MODE_MAPPING:
+				trackingMode = mode;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown tracking mode: " + mode);
+		}
+	}
+
+	public int getTrackingMode() {
+		return trackingMode;
+	}
+
+	private void showTrackingModeDialog() {
+		new AlertDialog.Builder(this)
+			.setTitle(R.string.title_tracking_mode)
+			.setSingleChoiceItems(R.array.tracking_modes, trackingMode, new DialogInterface.OnClickListener() {
+				@Override
+				public void onClick(DialogInterface dialog, int which) {
+					// Items follow the MODE_ constants
+					setTrackingMode(which);
+					dialog.dismiss();
+				}
+			})
+			.show();
+	}
+
+	/**
+	 * Shows the undistorted frame; detection and pose are unaffected and
+	 * keep working on the raw frame.
+	 */
+	public void setUndistortDisplay(boolean undistortDisplay) {
+		this.undistortDisplay = undistortDisplay;
+	}
+
+	/**
+	 * Converts the annotated RGB frame into the view's output frame, which
+	 * backs the on-screen bitmap, so presenting it is a plain copy instead
+	 * of Utils.matToBitmap. The ArUco drawing functions need three
+	 * channels, hence the RGB working copy.
+	 */
+	private Mat present(Mat frame) {
+		Mat shown = display(frame);
+		Mat output = camera.getOutputFrame();
+		if (output == null || output.rows() != shown.rows() || output.cols() != shown.cols())
+			return shown;
+
+		Imgproc.cvtColor(shown, output, Imgproc.COLOR_RGB2RGBA);
+		return output;
+	}
+
+	private Mat display(Mat frame) {
+		if (!undistortDisplay || undistorter == null)
+			return frame;
+
+		if (displayFrame == null)
+			displayFrame = new Mat();
+		undistorter.undistortImage(frame, displayFrame);
+		return displayFrame;
+	}
+
+	/**
+	 * Overlay and 3D model from confirmed tracks only: single-frame flickers
+	 * never show, and a marker missed for a few frames keeps its predicted
+	 * pose, drawn in gray.
+	 */
+	private void drawTracks() {
+		if (trackRvec == null) {
+			trackRvec = new Mat(3, 1, CvType.CV_64FC1);
+			trackTvec = new Mat(3, 1, CvType.CV_64FC1);
+		}
+
+		for (TrackManager.Track track : trackManager.getConfirmedTracks()) {
+			trackRvec.put(0, 0, track.rvec);
+			trackTvec.put(0, 0, track.tvec);
+			float length = markerSizes.getSize(track.id);
+
+			drawAxis(rgb, cameraMatrix, distCoeffs, trackRvec, trackTvec, length);
+			draw3dCube(rgb, cameraMatrix, distCoeffs, trackRvec, trackTvec, length,
+				track.isPredicted() ? PREDICTED_CUBE_COLOR : CUBE_COLOR);
+			transformModel(trackTvec, trackRvec);
+		}
+	}
+
+	private void estimateBoardPose() {
+		if (charucoEstimator == null) {
+			CharucoBoard board = new CharucoBoard(new Size(BOARD_SQUARES_X, BOARD_SQUARES_Y),
+				BOARD_SQUARE_LENGTH, BOARD_MARKER_LENGTH, dictionary);
+			charucoEstimator = new CharucoPoseEstimator(board, parameters);
+			boardRvec = new Mat();
+			boardTvec = new Mat();
+		}
+
+		// One solvePnP over all interpolated chessboard corners
+		boolean found = charucoEstimator.estimate(gray, cameraMatrix, distCoeffs, boardRvec, boardTvec);
+		if (found) {
+			Objdetect.drawDetectedCornersCharuco(rgb, charucoEstimator.getCharucoCorners(), charucoEstimator.getCharucoIds());
+			drawAxis(rgb, cameraMatrix, distCoeffs, boardRvec, boardTvec, BOARD_SQUARE_LENGTH * 2);
+			transformModel(boardTvec, boardRvec);
+		}
+		showModel(found);
+	}
+
+	private void estimateGridPose() {
+		if (gridEstimator == null) {
+			GridBoard board = new GridBoard(new Size(GRID_MARKERS_X, GRID_MARKERS_Y),
+				GRID_MARKER_LENGTH, GRID_MARKER_SEPARATION, dictionary);
+			gridEstimator = new BoardPoseEstimator(board);
+			boardRvec = new Mat();
+			boardTvec = new Mat();
+		}
+
+		clearPoses();
+
+		// One RANSAC solve over the corners of every visible board marker
+		if (gridEstimator.estimate(corners, ids, cameraMatrix, distCoeffs, boardRvec, boardTvec)) {
+			rvecs.add(boardRvec.clone());
+			tvecs.add(boardTvec.clone());
+		}
+		showModel(!rvecs.isEmpty());
+	}
+
+	/**
+	 * Per-ID marker sizes from assets/marker_sizes.txt, SIZE for every
+	 * marker when the file is missing or invalid.
+	 */
+	private MarkerSizeRegistry loadMarkerSizes() {
+		InputStream in = null;
+		try {
+			in = getAssets().open(MARKER_SIZES_FILE);
+			return MarkerSizeRegistry.load(in, SIZE);
+		} catch (IOException e) {
+			Log.w("ArucoDebug", "Using default marker size: " + e.getMessage());
+			return new MarkerSizeRegistry(SIZE);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// Ignored
+				}
 			}
-			
-			// Clean up
+		}
+	}
+
+	private MarkerMapBuilder loadMap() {
+		File file = new File(getFilesDir(), MAP_FILE);
+		if (file.exists()) {
+			try {
+				MarkerMap map = MarkerMap.load(file);
+				Log.d("ArucoDebug", "Marker map loaded: " + map.size() + " markers");
+				return new MarkerMapBuilder(map);
+			} catch (IOException e) {
+				Log.e("ArucoDebug", "Error loading marker map: " + e.getMessage(), e);
+			}
+		}
+		// Maps assume a single marker size, the default one
+		return new MarkerMapBuilder(markerSizes.getDefaultSize());
+	}
+
+	private void saveMap() {
+		MarkerMapBuilder builder = mapBuilder;
+		MarkerMap map = builder != null ? builder.getMap() : null;
+		if (map == null)
+			return;
+
+		try {
+			map.save(new File(getFilesDir(), MAP_FILE));
+			Log.d("ArucoDebug", "Marker map saved: " + map.size() + " markers");
+		} catch (IOException e) {
+			Log.e("ArucoDebug", "Error saving marker map: " + e.getMessage(), e);
+		}
+	}
+
+	private void updateMap() {
+		MarkerMapBuilder builder = mapBuilder;
+		if (builder == null)
+			return;
+
+		int count = rvecs.size();
+		if (mapIds.length < count) {
+			mapIds = new int[count];
+			mapRvecs = new double[count * 3];
+			mapTvecs = new double[count * 3];
+		}
+
+		// Only well-conditioned poses go into the pose graph
+		int accepted = 0;
+		for (int i = 0; i < count; i++) {
+			if (!poseQualities[i].isAcceptable(MAPPING_MAX_RMS_ERROR, MAPPING_MIN_AREA, MAPPING_MAX_VIEWING_ANGLE))
+				continue;
+
+			mapIds[accepted] = poseIds[i];
+			System.arraycopy(poseRvecs, i * 3, mapRvecs, accepted * 3, 3);
+			System.arraycopy(poseTvecs, i * 3, mapTvecs, accepted * 3, 3);
+			accepted++;
+		}
+
+		// Co-visible markers extend the pose graph, optimized in the background
+		builder.addObservations(mapIds, mapRvecs, mapTvecs, accepted);
+
+		MarkerMap map = builder.getMap();
+		if (map == null)
+			return;
+
+		if (map != localizationMap) {
+			if (mapEstimator != null)
+				mapEstimator.release();
+
+			localizationMap = map;
+			mapEstimator = new BoardPoseEstimator(map.toBoard(dictionary));
+			if (mapRvec == null) {
+				mapRvec = new Mat();
+				mapTvec = new Mat();
+			}
+		}
+
+		// Camera pose against the whole map in a single solve
+		if (mapEstimator.estimate(corners, ids, cameraMatrix, distCoeffs, mapRvec, mapTvec))
+			drawAxis(rgb, cameraMatrix, distCoeffs, mapRvec, mapTvec, markerSizes.getDefaultSize() * 2);
+	}
+
+	private void clearPoses() {
+		for (Mat rvec : rvecs)
 			rvec.release();
+		for (Mat tvec : tvecs)
 			tvec.release();
-			objectPointsMat.release();
-			imagePointsMat.release();
-			
+
+		rvecs.clear();
+		tvecs.clear();
+	}
+
+	private void estimatePoses() {
+		clearPoses();
+
+		int[] markerIds = detection.getIds();
+		int count = detection.size();
+		if (poseIds.length < count) {
+			poseIds = new int[count];
+			poseRvecs = new double[count * 3];
+			poseTvecs = new double[count * 3];
+		}
+		if (poseQualities.length < count) {
+			int known = poseQualities.length;
+			poseQualities = Arrays.copyOf(poseQualities, count);
+			for (int i = known; i < poseQualities.length; i++)
+				poseQualities[i] = new PoseQuality();
+		}
+		cameraMatrix.get(0, 0, intrinsicsBuffer);
+
+		if (markerPoseEstimator == null)
+			markerPoseEstimator = new MarkerPoseEstimator(markerSizes);
+		markerPoseEstimator.nextFrame();
+
+		// Detection ran on the distorted frame: undistort only the corners,
+		// pose is then solved with zero distortion
+		if (cornerBuffer.length < count * 8)
+			cornerBuffer = new float[count * 8];
+		System.arraycopy(detection.getCorners(), 0, cornerBuffer, 0, count * 8);
+		undistorter.undistort(cornerBuffer, 0, count * 4);
+
+		if (count >= JAVA_POSE_MIN_MARKERS) {
+			estimatePosesInJava(markerIds, count);
+			return;
+		}
+
+		if (undistortedCorners == null)
+			undistortedCorners = new Mat(1, 4, CvType.CV_32FC2);
+
+		// Estimate pose for each detected marker using solvePnP
+		for(int i = 0; i < count; i++) {
+			Mat rvec = new Mat();
+			Mat tvec = new Mat();
+
+			System.arraycopy(cornerBuffer, i * 8, cornerValues, 0, 8);
+			undistortedCorners.put(0, 0, cornerValues);
+
+			if (estimateMarkerPose(markerIds[i], undistortedCorners, cameraMatrix, null, rvec, tvec)) {
+				int n = rvecs.size();
+				poseIds[n] = markerIds[i];
+				rvec.get(0, 0, poseBuffer);
+				System.arraycopy(poseBuffer, 0, poseRvecs, n * 3, 3);
+				tvec.get(0, 0, poseBuffer);
+				System.arraycopy(poseBuffer, 0, poseTvecs, n * 3, 3);
+				computePoseQuality(n, markerIds[i], i);
+
+				rvecs.add(rvec);
+				tvecs.add(tvec);
+			} else {
+				Log.e("ArucoDebug", "Error estimating pose for marker " + i);
+				rvec.release();
+				tvec.release();
+			}
+		}
+
+		// Appear/disappear events only fire on confirmed state changes
+		if (trackManager != null)
+			trackManager.update(poseIds, poseRvecs, poseTvecs, rvecs.size());
+	}
+	
+	/**
+	 * Pure Java pose for crowded frames, solving the undistorted corners in
+	 * cornerBuffer without a solvePnP call and its temporary Mats per marker.
+	 */
+	private void estimatePosesInJava(int[] markerIds, int count) {
+		markerPoseEstimator.estimateAll(markerIds, cornerBuffer, count,
+			intrinsicsBuffer[0], intrinsicsBuffer[4], intrinsicsBuffer[2], intrinsicsBuffer[5],
+			poseRvecs, poseTvecs);
+
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			// Failed markers come back with a zero pose
+			if (poseTvecs[i * 3 + 2] <= 0)
+				continue;
+
+			poseIds[n] = markerIds[i];
+			System.arraycopy(poseRvecs, i * 3, poseRvecs, n * 3, 3);
+			System.arraycopy(poseTvecs, i * 3, poseTvecs, n * 3, 3);
+			computePoseQuality(n, markerIds[i], i);
+
+			Mat rvec = new Mat(3, 1, CvType.CV_64FC1);
+			Mat tvec = new Mat(3, 1, CvType.CV_64FC1);
+			System.arraycopy(poseRvecs, n * 3, poseBuffer, 0, 3);
+			rvec.put(0, 0, poseBuffer);
+			System.arraycopy(poseTvecs, n * 3, poseBuffer, 0, 3);
+			tvec.put(0, 0, poseBuffer);
+
+			rvecs.add(rvec);
+			tvecs.add(tvec);
+			n++;
+		}
+
+		if (trackManager != null)
+			trackManager.update(poseIds, poseRvecs, poseTvecs, n);
+	}
+
+	/**
+	 * Quality of pose n against the undistorted corners of marker i.
+	 */
+	private void computePoseQuality(int n, int id, int i) {
+		poseQualities[n].compute(cornerBuffer, i * 8, poseRvecs, n * 3, poseTvecs, n * 3,
+			markerSizes.getSize(id),
+			intrinsicsBuffer[0], intrinsicsBuffer[4], intrinsicsBuffer[2], intrinsicsBuffer[5]);
+	}
+
+	private boolean estimateMarkerPose(int id, Mat markerCorners, Mat cameraMatrix, MatOfDouble distCoeffs, Mat rvec, Mat tvec) {
+		try {
+			// IPPE_SQUARE gives both planar solutions, history picks between
+			// them when their reprojection errors are too close to call
+			return markerPoseEstimator.estimate(id, markerCorners, cameraMatrix, distCoeffs, rvec, tvec);
 		} catch (Exception e) {
 			Log.e("ArucoDebug", "Exception in estimateMarkerPose: " + e.getMessage(), e);
+			return false;
 		}
 	}
 	
 	private void drawAxis(Mat frame, Mat cameraMatrix, MatOfDouble distCoeffs, Mat rvec, Mat tvec, float length) {
 		try {
-			// Define 3D axis points
-			List<Point3> axisPoints = new ArrayList<>();
-			axisPoints.add(new Point3(0, 0, 0));        // origin
-			axisPoints.add(new Point3(length, 0, 0));   // X axis (red)
-			axisPoints.add(new Point3(0, length, 0));   // Y axis (green)  
-			axisPoints.add(new Point3(0, 0, -length));  // Z axis (blue)
-			
-			MatOfPoint3f axisPoints3D = new MatOfPoint3f();
-			axisPoints3D.fromList(axisPoints);
-			
+			// Origin, then the X (red), Y (green) and Z (blue) axis ends
+			float[] axis = axisPoints;
+			axis[3] = length;
+			axis[7] = length;
+			axis[11] = -length;
+			objectPoints.fromArray(axis, 0, axis.length);
+
 			// Project to 2D
-			MatOfPoint2f axisPoints2D = new MatOfPoint2f();
-			Calib3d.projectPoints(axisPoints3D, rvec, tvec, cameraMatrix, distCoeffs, axisPoints2D);
-			
-			Point[] pts = axisPoints2D.toArray();
-			if (pts.length >= 4) {
-				// Draw X axis in red
-				Imgproc.line(frame, pts[0], pts[1], new Scalar(0, 0, 255), 3);
-				// Draw Y axis in green  
-				Imgproc.line(frame, pts[0], pts[2], new Scalar(0, 255, 0), 3);
-				// Draw Z axis in blue
-				Imgproc.line(frame, pts[0], pts[3], new Scalar(255, 0, 0), 3);
+			Calib3d.projectPoints(objectPoints, rvec, tvec, cameraMatrix, distCoeffs, projectedPoints);
+
+			if (projectedPoints.toArray(projectedBuffer) >= 4) {
+				drawLine(frame, 0, 1, AXIS_X_COLOR, 3);
+				drawLine(frame, 0, 2, AXIS_Y_COLOR, 3);
+				drawLine(frame, 0, 3, AXIS_Z_COLOR, 3);
 			}
-			
-			axisPoints3D.release();
-			axisPoints2D.release();
 		} catch (Exception e) {
 			Log.e("ArucoDebug", "Error drawing axis: " + e.getMessage());
 		}
 	}
 
-	public void draw3dCube(Mat frame, Mat cameraMatrix, MatOfDouble distCoeffs, Mat rvec, Mat tvec, Scalar color){
-		double halfSize = SIZE/2.0;
-
-		List<Point3> points = new ArrayList<Point3>();
-		points.add(new Point3(-halfSize, -halfSize, 0));
-		points.add(new Point3(-halfSize,  halfSize, 0));
-		points.add(new Point3( halfSize,  halfSize, 0));
-		points.add(new Point3( halfSize, -halfSize, 0));
-		points.add(new Point3(-halfSize, -halfSize, SIZE));
-		points.add(new Point3(-halfSize,  halfSize, SIZE));
-		points.add(new Point3( halfSize,  halfSize, SIZE));
-		points.add(new Point3( halfSize, -halfSize, SIZE));
-
-		MatOfPoint3f cubePoints = new MatOfPoint3f();
-		cubePoints.fromList(points);
+	public void draw3dCube(Mat frame, Mat cameraMatrix, MatOfDouble distCoeffs, Mat rvec, Mat tvec, float size, Scalar color){
+		float h = size/2;
+		float[] cube = cubePoints;
+		for (int i = 0; i < 8; i++) {
+			// Base square, then the same square lifted by size
+			cube[i*3] = (i % 4) < 2 ? -h : h;
+			cube[i*3 + 1] = (i % 4 == 0 || i % 4 == 3) ? -h : h;
+			cube[i*3 + 2] = i < 4 ? 0 : size;
+		}
+		objectPoints.fromArray(cube, 0, cube.length);
 
-		MatOfPoint2f projectedPoints = new MatOfPoint2f();
-		Calib3d.projectPoints(cubePoints, rvec, tvec, cameraMatrix, distCoeffs, projectedPoints);
+		Calib3d.projectPoints(objectPoints, rvec, tvec, cameraMatrix, distCoeffs, projectedPoints);
+		if (projectedPoints.toArray(projectedBuffer) < 8)
+			return;
 
-		List<Point> pts = projectedPoints.toList();
+		for(int i=0; i<4; i++){
+			drawLine(frame, i, (i+1)%4, color, 2);
+			drawLine(frame, i+4, 4+(i+1)%4, color, 2);
+			drawLine(frame, i, i+4, color, 2);
+		}
+	}
 
-	    for(int i=0; i<4; i++){
-	        Imgproc.line(frame, pts.get(i), pts.get((i+1)%4), color, 2);
-	        Imgproc.line(frame, pts.get(i+4), pts.get(4+(i+1)%4), color, 2);
-	        Imgproc.line(frame, pts.get(i), pts.get(i+4), color, 2);
-	    }	        
+	private void drawLine(Mat frame, int from, int to, Scalar color, int thickness) {
+		lineStart.x = projectedBuffer[from*2];
+		lineStart.y = projectedBuffer[from*2 + 1];
+		lineEnd.x = projectedBuffer[to*2];
+		lineEnd.y = projectedBuffer[to*2 + 1];
+		Imgproc.line(frame, lineStart, lineEnd, color, thickness);
 	}
 	
-	private void transformModel(final Mat tvec, final Mat rvec){
+	private void transformModel(Mat tvec, Mat rvec){
 		try {
 			// Check if Mats are valid and have data
-			if (tvec == null || rvec == null || tvec.empty() || rvec.empty()) {
+			if (renderer == null || tvec == null || rvec == null || tvec.empty() || rvec.empty()) {
 				Log.w("ArucoDebug", "transformModel: tvec or rvec is null/empty");
 				return;
 			}
-			
-			// Get the translation and rotation data safely
-			double[] tvecData = tvec.get(0, 0);
-			double[] rvecData = rvec.get(0, 0);
-			
-			if (tvecData == null || rvecData == null || 
-				tvecData.length < 3 || rvecData.length < 3) {
-				Log.w("ArucoDebug", "transformModel: invalid data arrays");
-				return;
-			}
-			
-			runOnUiThread(new Runnable(){
-				@Override
-				public void run(){
-					try {
-						double[] tvecData = tvec.get(0, 0);
-						double[] rvecData = rvec.get(0, 0);
-						
-						if (tvecData != null && rvecData != null && 
-							tvecData.length >= 3 && rvecData.length >= 3) {
-							renderer.transform(
-								tvecData[0]*50,
-								-tvecData[1]*50,
-								-tvecData[2]*50,
-							
-								rvecData[2], //yaw
-								rvecData[1], //pitch
-								rvecData[0] //roll
-							);
-						}
-					} catch (Exception e) {
-						Log.e("ArucoDebug", "Error in transformModel UI thread: " + e.getMessage());
-					}
-				}
-			});
+
+			rvec.get(0, 0, modelRvec);
+			tvec.get(0, 0, modelTvec);
+
+			// Marker pose in the OpenCV camera frame, then in the OpenGL one
+			PoseMath.fromRvecTvec(modelRvec, 0, modelTvec, 0, modelTransform);
+			PoseMath.cvToGl(modelTransform, modelTransform);
+			PoseMath.matrixToQuaternion(modelTransform, 0, modelQuaternion, 0);
+
+			renderer.transform(
+				modelTransform[9] * SCENE_SCALE,
+				modelTransform[10] * SCENE_SCALE,
+				modelTransform[11] * SCENE_SCALE,
+				modelQuaternion[0], modelQuaternion[1], modelQuaternion[2], modelQuaternion[3]
+			);
 		} catch (Exception e) {
 			Log.e("ArucoDebug", "Error in transformModel: " + e.getMessage());
 		}
@@ -0,0 +1,543 @@
+package mg.rivolink.app.aruco.batch;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.objdetect.DetectorParameters;
+import org.opencv.objdetect.Objdetect;
+
+import mg.rivolink.app.aruco.detection.DetectionResult;
+import mg.rivolink.app.aruco.detection.LargeImageDetector;
+import mg.rivolink.app.aruco.detection.MarkerDetector;
+import mg.rivolink.app.aruco.pose.MarkerPoseEstimator;
+import mg.rivolink.app.aruco.pose.MarkerSizeRegistry;
+import mg.rivolink.app.aruco.utils.CameraParameters;
+
+/**
+ * Marker detection and pose over large sets of still images.
+ *
+ * Images are read and detected on a pool where every worker thread owns
+ * its MarkerDetector, LargeImageDetector and MarkerPoseEstimator, built once
+ * per thread. Each worker decodes through its LargeImageDetector, reduced or
+ * in tiles, with an equal share of getMaxDecodedPixels() as its decode
+ * budget, so memory follows the thread count rather than the size of the
+ * set or of its images. Each result is
+ * posted to the listener on the main thread as soon as its image is done,
+ * and appended to the output file as CSV, one line per marker.
+ *
+ * One batch runs at a time; start() again once onFinished was called.
+ */
+public class BatchDetector {
+
+	public static final long DEFAULT_MAX_DECODED_PIXELS = 48L*1024*1024;
+
+	public static final String CSV_HEADER = "index,source,status,id,"
+		+ "x0,y0,x1,y1,x2,y2,x3,y3,rx,ry,rz,tx,ty,tz";
+
+	public interface Listener {
+		void onImageDone(ImageResult result, Progress progress);
+		void onFinished(Progress progress);
+	}
+
+	/**
+	 * Detections of one image. Corners hold eight floats and rvecs, tvecs
+	 * three doubles per marker; markers whose pose failed have a zero pose.
+	 */
+	public static class ImageResult {
+		public final int index;
+		public final Uri source;
+		public final int width;
+		public final int height;
+		public final int[] ids;
+		public final float[] corners;
+		public final double[] rvecs;
+		public final double[] tvecs;
+
+		// Null unless the image could not be decoded or detected
+		public final String error;
+
+		public final long decodeMillis;
+		public final long detectMillis;
+
+		ImageResult(int index, Uri source, int width, int height, int[] ids, float[] corners,
+				double[] rvecs, double[] tvecs, String error, long decodeMillis, long detectMillis){
+			this.index = index;
+			this.source = source;
+			this.width = width;
+			this.height = height;
+			this.ids = ids;
+			this.corners = corners;
+			this.rvecs = rvecs;
+			this.tvecs = tvecs;
+			this.error = error;
+			this.decodeMillis = decodeMillis;
+			this.detectMillis = detectMillis;
+		}
+
+		public int size(){
+			return ids.length;
+		}
+	}
+
+	/**
+	 * Snapshot of a batch. Decode and detect times are summed over threads,
+	 * so their means are per image, not wall clock.
+	 */
+	public static class Progress {
+		public final int total;
+		public final int done;
+		public final int failed;
+		public final int markers;
+		public final long elapsedMillis;
+		public final boolean cancelled;
+
+		// Null unless writing the output file failed, which is then missing
+		// or truncated
+		public final IOException outputError;
+
+		private final long decodeNanos;
+		private final long detectNanos;
+
+		Progress(int total, int done, int failed, int markers, long elapsedMillis, boolean cancelled,
+				IOException outputError, long decodeNanos, long detectNanos){
+			this.total = total;
+			this.done = done;
+			this.failed = failed;
+			this.markers = markers;
+			this.elapsedMillis = elapsedMillis;
+			this.cancelled = cancelled;
+			this.outputError = outputError;
+			this.decodeNanos = decodeNanos;
+			this.detectNanos = detectNanos;
+		}
+
+		public double getImagesPerSecond(){
+			return elapsedMillis > 0 ? done*1000.0/elapsedMillis : 0;
+		}
+
+		public double getMeanDecodeMillis(){
+			return done > 0 ? decodeNanos/1e6/done : 0;
+		}
+
+		public double getMeanDetectMillis(){
+			return done > 0 ? detectNanos/1e6/done : 0;
+		}
+
+		@Override
+		public String toString(){
+			return String.format("%d/%d images, %d failed, %d markers, %.1f img/s, decode %.1f ms, detect %.1f ms%s%s",
+				done, total, failed, markers, getImagesPerSecond(),
+				getMeanDecodeMillis(), getMeanDetectMillis(), cancelled ? ", cancelled" : "",
+				outputError != null ? ", output failed: "+outputError.getMessage() : "");
+		}
+	}
+
+	private final ContentResolver resolver;
+	private final int dictionaryId;
+	private final MarkerSizeRegistry sizes;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	private int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	private long maxDecodedPixels = DEFAULT_MAX_DECODED_PIXELS;
+	private double[] intrinsics;
+	private File output;
+	private Listener listener;
+
+	// State of the running batch
+	private volatile boolean running;
+	private volatile boolean cancelled;
+	private volatile IOException outputError;
+	private ExecutorService pool;
+	private ExecutorService writerPool;
+	private Writer writer;
+	private ThreadLocal<Worker> localWorker;
+	private final List<Worker> workers = new ArrayList<>();
+
+	private int total;
+	private long startTime;
+	private final AtomicInteger remaining = new AtomicInteger();
+	private final AtomicInteger done = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicInteger markers = new AtomicInteger();
+	private final AtomicLong decodeNanos = new AtomicLong();
+	private final AtomicLong detectNanos = new AtomicLong();
+
+	/**
+	 * sizes must be fully configured, it is shared read-only by the workers.
+	 */
+	public BatchDetector(ContentResolver resolver, int dictionaryId, MarkerSizeRegistry sizes){
+		this.resolver = resolver;
+		this.dictionaryId = dictionaryId;
+		this.sizes = sizes;
+	}
+
+	public void setThreads(int threads){
+		if(threads < 1)
+			throw new IllegalArgumentException("Invalid thread count: "+threads);
+		this.threads = threads;
+	}
+
+	/**
+	 * Decode budget split equally between the workers, see
+	 * LargeImageDetector.setDecodeBudget() for what it leaves out.
+	 */
+	public void setMaxDecodedPixels(long maxDecodedPixels){
+		if(maxDecodedPixels < 1 << 20)
+			throw new IllegalArgumentException("Invalid pixel budget: "+maxDecodedPixels);
+		this.maxDecodedPixels = maxDecodedPixels;
+	}
+
+	public long getMaxDecodedPixels(){
+		return maxDecodedPixels;
+	}
+
+	/**
+	 * Intrinsics used for every image. Without them each image gets
+	 * CameraParameters defaults for its own size.
+	 */
+	public void setIntrinsics(double fx, double fy, double cx, double cy){
+		intrinsics = new double[]{ fx, fy, cx, cy };
+	}
+
+	/**
+	 * CSV file the results are appended to, or null for none.
+	 */
+	public void setOutput(File output){
+		this.output = output;
+	}
+
+	public void setListener(Listener listener){
+		this.listener = listener;
+	}
+
+	public boolean isRunning(){
+		return running;
+	}
+
+	public static List<Uri> fromFiles(List<File> files){
+		List<Uri> uris = new ArrayList<>(files.size());
+		for(File file : files)
+			uris.add(Uri.fromFile(file));
+		return uris;
+	}
+
+	public synchronized void start(List<Uri> sources) throws IOException {
+		if(running)
+			throw new IllegalStateException("A batch is already running");
+
+		if(output != null){
+			writer = new BufferedWriter(new FileWriter(output), 1 << 16);
+			writer.write(CSV_HEADER);
+			writer.write('\n');
+			writerPool = Executors.newSingleThreadExecutor(threadFactory("BatchDetector writer"));
+		}
+
+		running = true;
+		cancelled = false;
+		outputError = null;
+		total = sources.size();
+		remaining.set(total);
+		done.set(0);
+		failed.set(0);
+		markers.set(0);
+		decodeNanos.set(0);
+		detectNanos.set(0);
+		startTime = System.nanoTime();
+
+		pool = Executors.newFixedThreadPool(threads, threadFactory("BatchDetector worker"));
+		localWorker = new ThreadLocal<Worker>(){
+			@Override
+			protected Worker initialValue(){
+				Worker worker = new Worker();
+				synchronized(workers){
+					workers.add(worker);
+				}
+				return worker;
+			}
+		};
+
+		if(total == 0){
+			finish();
+			return;
+		}
+
+		for(int i = 0; i < total; i++)
+			pool.execute(new ImageTask(i, sources.get(i)));
+	}
+
+	/**
+	 * Stops the batch: images not started yet are skipped, the ones being
+	 * processed complete, then onFinished reports a cancelled batch.
+	 */
+	public void cancel(){
+		cancelled = true;
+	}
+
+	public Progress getProgress(){
+		return new Progress(total, done.get(), failed.get(), markers.get(),
+			(System.nanoTime() - startTime)/1000000, cancelled, outputError, decodeNanos.get(), detectNanos.get());
+	}
+
+	private class ImageTask implements Runnable {
+		final int index;
+		final Uri source;
+
+		ImageTask(int index, Uri source){
+			this.index = index;
+			this.source = source;
+		}
+
+		@Override
+		public void run(){
+			if(cancelled){
+				skip();
+				return;
+			}
+
+			// Whatever fails, including the worker setup or an out of memory
+			// error on a huge image, the image is counted so the batch ends
+			long start = System.nanoTime();
+			Worker worker = null;
+			ImageResult result = null;
+			String error = null;
+			try {
+				worker = localWorker.get();
+				result = worker.process(index, source, start);
+			}
+			catch(Throwable e){
+				error = e.toString();
+			}
+			finally {
+				long decodeTime = worker != null ? worker.imageDetector.getDecodeNanos() : 0;
+				long detectTime = System.nanoTime() - start - decodeTime;
+				if(result == null){
+					result = new ImageResult(index, source, 0, 0, new int[0], new float[0],
+						new double[0], new double[0], error != null ? error : "Aborted",
+						decodeTime/1000000, detectTime/1000000);
+				}
+				complete(result, decodeTime, detectTime);
+			}
+		}
+	}
+
+	/**
+	 * Per-thread detectors and estimator, created on first use by a worker
+	 * and released when the batch finishes.
+	 */
+	private class Worker {
+		final MarkerDetector detector;
+		final LargeImageDetector imageDetector;
+		final MarkerPoseEstimator estimator;
+		final DetectionResult detection = new DetectionResult();
+		final double[] defaults = new double[4];
+
+		Worker(){
+			detector = new MarkerDetector(Objdetect.getPredefinedDictionary(dictionaryId), new DetectorParameters());
+			estimator = new MarkerPoseEstimator(sizes);
+
+			// Tiles within the share too, down to the marker overlap
+			long share = Math.max(1, maxDecodedPixels/threads);
+			imageDetector = new LargeImageDetector(detector);
+			imageDetector.setDecodeBudget(share,
+				(int)Math.min(LargeImageDetector.DEFAULT_TILE_SIZE, Math.sqrt(share)));
+		}
+
+		// Corners are in original image coordinates, whatever the decode
+		ImageResult process(int index, Uri source, long start) throws IOException {
+			imageDetector.detect(sourceOf(source), detection);
+			int width = imageDetector.getWidth();
+			int height = imageDetector.getHeight();
+
+			int count = detection.size();
+			int[] ids = Arrays.copyOf(detection.getIds(), count);
+			float[] corners = Arrays.copyOf(detection.getCorners(), count*DetectionResult.CORNER_FLOATS);
+			double[] rvecs = new double[count*3];
+			double[] tvecs = new double[count*3];
+
+			if(count > 0){
+				double[] k = intrinsics;
+				if(k == null)
+					CameraParameters.getDefaultIntrinsics(width, height, k = defaults);
+
+				// Images are unrelated, no history to disambiguate poses with
+				estimator.clearHistory();
+				estimator.estimateAll(ids, corners, count, k[0], k[1], k[2], k[3], rvecs, tvecs);
+			}
+
+			long decodeTime = imageDetector.getDecodeNanos();
+			return new ImageResult(index, source, width, height, ids, corners, rvecs, tvecs,
+				null, decodeTime/1000000, (System.nanoTime() - start - decodeTime)/1000000);
+		}
+
+		void release(){
+			imageDetector.release();
+			detector.release();
+			estimator.release();
+		}
+	}
+
+	private LargeImageDetector.Source sourceOf(Uri source){
+		if("file".equals(source.getScheme()))
+			return LargeImageDetector.fromFile(new File(source.getPath()));
+		return LargeImageDetector.fromUri(resolver, source);
+	}
+
+	private void skip(){
+		if(remaining.decrementAndGet() == 0)
+			finish();
+	}
+
+	private void complete(final ImageResult result, long decodeTime, long detectTime){
+		try {
+			if(result.error != null)
+				failed.incrementAndGet();
+			markers.addAndGet(result.size());
+			decodeNanos.addAndGet(decodeTime);
+			detectNanos.addAndGet(detectTime);
+			done.incrementAndGet();
+
+			final Writer target = writer;
+			if(target != null){
+				final String lines = toCsv(result);
+				writerPool.execute(new Runnable(){
+					@Override
+					public void run(){
+						try {
+							target.write(lines);
+						}
+						catch(IOException e){
+							outputFailed(e);
+						}
+					}
+				});
+			}
+
+			final Progress progress = getProgress();
+			final Listener listener = this.listener;
+			if(listener != null){
+				mainHandler.post(new Runnable(){
+					@Override
+					public void run(){
+						listener.onImageDone(result, progress);
+					}
+				});
+			}
+		}
+		finally {
+			if(remaining.decrementAndGet() == 0)
+				finish();
+		}
+	}
+
+	// Writer thread only; the first error is the one reported
+	private void outputFailed(IOException e){
+		if(outputError == null)
+			outputError = e;
+	}
+
+	// Runs on the thread that completed the last image, all workers are idle
+	private void finish(){
+		pool.shutdown();
+
+		synchronized(workers){
+			for(Worker worker : workers)
+				worker.release();
+			workers.clear();
+		}
+
+		if(writer == null){
+			postFinished();
+			return;
+		}
+
+		final Writer closing = writer;
+		writer = null;
+		writerPool.execute(new Runnable(){
+			@Override
+			public void run(){
+				try {
+					closing.close();
+				}
+				catch(IOException e){
+					outputFailed(e);
+				}
+				postFinished();
+			}
+		});
+		writerPool.shutdown();
+	}
+
+	// Once the output is closed, so the progress holds its outcome
+	private void postFinished(){
+		final Progress progress = getProgress();
+		mainHandler.post(new Runnable(){
+			@Override
+			public void run(){
+				running = false;
+				if(listener != null)
+					listener.onFinished(progress);
+			}
+		});
+	}
+
+	private static String toCsv(ImageResult result){
+		StringBuilder csv = new StringBuilder(128*Math.max(1, result.size()));
+		String prefix = result.index+","+quote(result.source.toString())+",";
+
+		if(result.error != null){
+			csv.append(prefix).append(quote("error: "+result.error)).append('\n');
+			return csv.toString();
+		}
+		if(result.size() == 0){
+			csv.append(prefix).append("none\n");
+			return csv.toString();
+		}
+
+		for(int i = 0; i < result.size(); i++){
+			csv.append(prefix).append("ok,").append(result.ids[i]);
+			for(int j = 0; j < DetectionResult.CORNER_FLOATS; j++)
+				csv.append(',').append(result.corners[i*DetectionResult.CORNER_FLOATS + j]);
+			for(int j = 0; j < 3; j++)
+				csv.append(',').append(result.rvecs[i*3 + j]);
+			for(int j = 0; j < 3; j++)
+				csv.append(',').append(result.tvecs[i*3 + j]);
+			csv.append('\n');
+		}
+		return csv.toString();
+	}
+
+	private static String quote(String value){
+		return "\""+value.replace("\"", "\"\"")+"\"";
+	}
+
+	private static ThreadFactory threadFactory(final String name){
+		return new ThreadFactory(){
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable){
+				Thread thread = new Thread(runnable, name+" "+count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+}
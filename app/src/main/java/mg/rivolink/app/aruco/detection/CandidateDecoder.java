@@ -0,0 +1,240 @@
+package mg.rivolink.app.aruco.detection;
+
+import java.util.Arrays;
+
+import org.opencv.core.Mat;
+import org.opencv.objdetect.DetectorParameters;
+
+/**
+ * Java port of the ArUco bit extraction, identifying marker candidates
+ * through a {@link DictionaryIndex} instead of the native linear scan.
+ *
+ * The frame is read once per call to load(); each candidate is then sampled
+ * through the homography of its quad at perspectiveRemovePixelPerCell
+ * pixels per module, thresholded with Otsu and read cell by cell, as
+ * ArucoDetector does on its warped candidate image.
+ */
+class CandidateDecoder {
+
+	private final DictionaryIndex index;
+
+	private final int markerSize;
+	private final int borderBits;
+	private final int cellPixels;
+	private final int cellMargin;
+	private final int side;
+	private final int maxBorderErrors;
+	private final double minStdDev;
+	private final double correctionRate;
+	private final boolean detectInverted;
+
+	private byte[] image = new byte[0];
+	private int width;
+	private int height;
+
+	// Warped candidate, side x side
+	private final int[] warped;
+	private final int[] histogram = new int[256];
+	private final boolean[] cells;
+
+	private final int[] idx = new int[1];
+	private final int[] rotation = new int[1];
+	private final float[] rotated = new float[DetectionResult.CORNER_FLOATS];
+
+	CandidateDecoder(DictionaryIndex index, DetectorParameters parameters){
+		this.index = index;
+
+		markerSize = index.getMarkerSize();
+		borderBits = parameters.get_markerBorderBits();
+		cellPixels = parameters.get_perspectiveRemovePixelPerCell();
+		cellMargin = (int)(parameters.get_perspectiveRemoveIgnoredMarginPerCell()*cellPixels);
+		maxBorderErrors = (int)(markerSize*markerSize*parameters.get_maxErroneousBitsInBorderRate());
+		minStdDev = parameters.get_minOtsuStdDev();
+		correctionRate = parameters.get_errorCorrectionRate();
+		detectInverted = parameters.get_detectInvertedMarker();
+
+		int modules = markerSize + 2*borderBits;
+		side = modules*cellPixels;
+		warped = new int[side*side];
+		cells = new boolean[modules*modules];
+	}
+
+	/**
+	 * Reads the pixels of the CV_8UC1 frame the next candidates lie in.
+	 */
+	void load(Mat gray){
+		width = gray.cols();
+		height = gray.rows();
+		if(image.length < width*height)
+			image = new byte[width*height];
+		gray.get(0, 0, image);
+	}
+
+	/**
+	 * Identifies the quad at offset in corners. On success returns the id
+	 * and rewrites the quad in place, rotated so its first corner is the
+	 * first corner of the marker; returns -1 otherwise.
+	 */
+	int decode(float[] corners, int offset){
+		warp(corners, offset);
+		if(!readCells())
+			return -1;
+
+		int modules = markerSize + 2*borderBits;
+		// Inverted whenever its border reads better, like the native detector
+		int errors = borderErrors(false);
+		if(detectInverted){
+			int invertedErrors = borderErrors(true);
+			if(invertedErrors < errors){
+				errors = invertedErrors;
+				for(int i = 0; i < cells.length; i++)
+					cells[i] = !cells[i];
+			}
+		}
+		if(errors > maxBorderErrors)
+			return -1;
+
+		long bits = 0;
+		for(int y = borderBits; y < borderBits + markerSize; y++){
+			for(int x = borderBits; x < borderBits + markerSize; x++)
+				bits = (bits << 1) | (cells[y*modules + x] ? 1 : 0);
+		}
+
+		if(!index.identify(bits, idx, rotation, correctionRate))
+			return -1;
+
+		// Same corner rotation as the native detector
+		for(int k = 0; k < 4; k++){
+			int from = (k + 4 - rotation[0])%4;
+			rotated[2*k] = corners[offset + 2*from];
+			rotated[2*k + 1] = corners[offset + 2*from + 1];
+		}
+		System.arraycopy(rotated, 0, corners, offset, rotated.length);
+		return idx[0];
+	}
+
+	// Nearest neighbour sampling of the quad onto the side x side square,
+	// black outside the frame like warpPerspective
+	private void warp(float[] corners, int offset){
+		double x0 = corners[offset], y0 = corners[offset + 1];
+		double x1 = corners[offset + 2], y1 = corners[offset + 3];
+		double x2 = corners[offset + 4], y2 = corners[offset + 5];
+		double x3 = corners[offset + 6], y3 = corners[offset + 7];
+
+		// Unit square to quad
+		double dx1 = x1 - x2, dx2 = x3 - x2, dx3 = x0 - x1 + x2 - x3;
+		double dy1 = y1 - y2, dy2 = y3 - y2, dy3 = y0 - y1 + y2 - y3;
+		double g = 0, h = 0;
+		if(dx3 != 0 || dy3 != 0){
+			double den = dx1*dy2 - dx2*dy1;
+			g = (dx3*dy2 - dx2*dy3)/den;
+			h = (dx1*dy3 - dx3*dy1)/den;
+		}
+		double a = x1 - x0 + g*x1, b = x3 - x0 + h*x3;
+		double d = y1 - y0 + g*y1, e = y3 - y0 + h*y3;
+
+		double scale = 1.0/(side - 1);
+		for(int v = 0; v < side; v++){
+			double vn = v*scale;
+			for(int u = 0; u < side; u++){
+				double un = u*scale;
+				double w = g*un + h*vn + 1;
+				int sx = (int)Math.round((a*un + b*vn + x0)/w);
+				int sy = (int)Math.round((d*un + e*vn + y0)/w);
+				warped[v*side + u] = sx < 0 || sy < 0 || sx >= width || sy >= height ? 0 : image[sy*width + sx] & 0xFF;
+			}
+		}
+	}
+
+	// Thresholds the warped square and fills cells; false when it cannot be
+	// read
+	private boolean readCells(){
+		int modules = markerSize + 2*borderBits;
+
+		// Uniform candidates are a single color, no Otsu split
+		double sum = 0, squares = 0;
+		int from = cellPixels/2, to = side - cellPixels/2;
+		for(int v = from; v < to; v++){
+			for(int u = from; u < to; u++){
+				int p = warped[v*side + u];
+				sum += p;
+				squares += p*p;
+			}
+		}
+		int count = (to - from)*(to - from);
+		double mean = sum/count;
+		double stdDev = Math.sqrt(Math.max(0, squares/count - mean*mean));
+		if(stdDev < minStdDev){
+			boolean white = mean > 127;
+			for(int i = 0; i < cells.length; i++)
+				cells[i] = white;
+			return true;
+		}
+
+		int threshold = otsu();
+		int inner = cellPixels - 2*cellMargin;
+		if(inner <= 0)
+			return false;
+
+		for(int y = 0; y < modules; y++){
+			for(int x = 0; x < modules; x++){
+				int set = 0;
+				for(int v = y*cellPixels + cellMargin; v < y*cellPixels + cellMargin + inner; v++){
+					for(int u = x*cellPixels + cellMargin; u < x*cellPixels + cellMargin + inner; u++){
+						if(warped[v*side + u] > threshold)
+							set++;
+					}
+				}
+				cells[y*modules + x] = set > inner*inner/2;
+			}
+		}
+		return true;
+	}
+
+	private int otsu(){
+		Arrays.fill(histogram, 0);
+		for(int p : warped)
+			histogram[p]++;
+
+		int total = warped.length;
+		double sum = 0;
+		for(int i = 0; i < 256; i++)
+			sum += i*(double)histogram[i];
+
+		double sumBelow = 0, best = -1;
+		int below = 0, threshold = 0;
+		for(int t = 0; t < 256; t++){
+			below += histogram[t];
+			if(below == 0)
+				continue;
+			int above = total - below;
+			if(above == 0)
+				break;
+
+			sumBelow += t*(double)histogram[t];
+			double meanBelow = sumBelow/below;
+			double meanAbove = (sum - sumBelow)/above;
+			double between = (double)below*above*(meanBelow - meanAbove)*(meanBelow - meanAbove);
+			if(between > best){
+				best = between;
+				threshold = t;
+			}
+		}
+		return threshold;
+	}
+
+	// Set cells in the border, which should be black, or white when inverted
+	private int borderErrors(boolean inverted){
+		int modules = markerSize + 2*borderBits;
+		int errors = 0;
+		for(int y = 0; y < modules; y++){
+			for(int x = 0; x < modules; x++){
+				boolean border = y < borderBits || x < borderBits || y >= modules - borderBits || x >= modules - borderBits;
+				if(border && cells[y*modules + x] != inverted)
+					errors++;
+			}
+		}
+		return errors;
+	}
+
+}
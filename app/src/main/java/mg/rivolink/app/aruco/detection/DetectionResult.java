@@ -0,0 +1,214 @@
+package mg.rivolink.app.aruco.detection;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.utils.Converters;
+
+/**
+ * Reusable detection output backed by primitive arrays: eight floats of
+ * corners (x, y for each corner in ArUco order) and one id per marker.
+ *
+ * Arrays grow as needed and are kept across frames, clear() only resets the
+ * size. getCorners() and getIds() return the backing arrays; only the first
+ * size() markers are meaningful.
+ */
+public class DetectionResult {
+
+	public static final int CORNER_FLOATS = 8;
+
+	private float[] corners;
+	private int[] ids;
+	private int size = 0;
+
+	private final float[] quad = new float[CORNER_FLOATS];
+
+	public DetectionResult(){
+		this(16);
+	}
+
+	public DetectionResult(int capacity){
+		corners = new float[capacity*CORNER_FLOATS];
+		ids = new int[capacity];
+	}
+
+	public void clear(){
+		size = 0;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	/**
+	 * Grows the backing arrays to hold at least capacity markers, keeping
+	 * the current content.
+	 */
+	public void ensureCapacity(int capacity){
+		if(ids.length >= capacity)
+			return;
+
+		int grown = Math.max(capacity, ids.length*2);
+		corners = Arrays.copyOf(corners, grown*CORNER_FLOATS);
+		ids = Arrays.copyOf(ids, grown);
+	}
+
+	/**
+	 * Sets the marker count after the backing arrays were filled directly.
+	 */
+	public void setSize(int size){
+		ensureCapacity(size);
+		this.size = size;
+	}
+
+	public void add(int id, float[] quad, int offset){
+		ensureCapacity(size + 1);
+		System.arraycopy(quad, offset, corners, size*CORNER_FLOATS, CORNER_FLOATS);
+		ids[size] = id;
+		size++;
+	}
+
+	public void set(DetectionResult other){
+		ensureCapacity(other.size);
+		System.arraycopy(other.corners, 0, corners, 0, other.size*CORNER_FLOATS);
+		System.arraycopy(other.ids, 0, ids, 0, other.size);
+		size = other.size;
+	}
+
+	public float[] getCorners(){
+		return corners;
+	}
+
+	public int[] getIds(){
+		return ids;
+	}
+
+	public int getId(int index){
+		return ids[index];
+	}
+
+	public float getX(int index, int corner){
+		return corners[index*CORNER_FLOATS + corner*2];
+	}
+
+	public float getY(int index, int corner){
+		return corners[index*CORNER_FLOATS + corner*2 + 1];
+	}
+
+	public int indexOf(int id){
+		for(int i = 0; i < size; i++){
+			if(ids[i] == id)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Replaces the content with detectMarkers style output (one 1x4
+	 * CV_32FC2 Mat per marker and a CV_32S ids Mat). The Mats are not released.
+	 */
+	public void fromMats(List<Mat> markerCorners, Mat markerIds){
+		int count = markerCorners.size();
+		ensureCapacity(count);
+
+		if(count > 0)
+			markerIds.get(0, 0, ids);
+
+		for(int i = 0; i < count; i++){
+			markerCorners.get(i).get(0, 0, quad);
+			System.arraycopy(quad, 0, corners, i*CORNER_FLOATS, CORNER_FLOATS);
+		}
+		size = count;
+	}
+
+	/**
+	 * Same as fromMats(markerCorners, markerIds), packing the corners into
+	 * the scratch Mat first so that they are read with one transfer instead
+	 * of one per marker.
+	 */
+	public void fromMats(List<Mat> markerCorners, Mat markerIds, Mat packed){
+		int count = markerCorners.size();
+		ensureCapacity(count);
+
+		if(count > 0)
+			markerIds.get(0, 0, ids);
+		Converters.vector_Mat_to_array_float(markerCorners, packed, corners, 0);
+		size = count;
+	}
+
+	/**
+	 * Replaces the content with the packed output of
+	 * ArucoDetector.detectMarkers(Mat, Mat, Mat): an N x 4 CV_32FC2 corner
+	 * Mat, one row per marker, read with a single get.
+	 */
+	public void fromPacked(Mat packedCorners, Mat markerIds){
+		int count = packedCorners.empty() ? 0 : packedCorners.rows();
+		ensureCapacity(count);
+
+		if(count > 0){
+			packedCorners.get(0, 0, corners, 0, count*CORNER_FLOATS);
+			markerIds.get(0, 0, ids, 0, count);
+		}
+		size = count;
+	}
+
+	/**
+	 * Drops the markers whose ID is not in allowed, keeping the order.
+	 * Returns how many were dropped.
+	 */
+	public int retainIds(BitSet allowed){
+		int kept = 0;
+		for(int i = 0; i < size; i++){
+			if(!allowed.get(ids[i]))
+				continue;
+
+			if(kept != i){
+				System.arraycopy(corners, i*CORNER_FLOATS, corners, kept*CORNER_FLOATS, CORNER_FLOATS);
+				ids[kept] = ids[i];
+			}
+			kept++;
+		}
+
+		int dropped = size - kept;
+		size = kept;
+		return dropped;
+	}
+
+	/**
+	 * Writes the content as detectMarkers style Mats for native consumers
+	 * (drawDetectedMarkers, boards). Corner Mats already in the list are
+	 * reused and surplus ones released, so repeated calls allocate nothing
+	 * once the list has grown.
+	 */
+	public void toMats(List<Mat> markerCorners, Mat markerIds){
+		while(markerCorners.size() > size)
+			markerCorners.remove(markerCorners.size() - 1).release();
+
+		for(int i = 0; i < size; i++){
+			Mat mat;
+			if(i < markerCorners.size()){
+				mat = markerCorners.get(i);
+				mat.create(1, 4, CvType.CV_32FC2);
+			}
+			else {
+				mat = new Mat(1, 4, CvType.CV_32FC2);
+				markerCorners.add(mat);
+			}
+
+			System.arraycopy(corners, i*CORNER_FLOATS, quad, 0, CORNER_FLOATS);
+			mat.put(0, 0, quad);
+		}
+
+		markerIds.create(size, 1, CvType.CV_32SC1);
+		if(size > 0)
+			markerIds.put(0, 0, ids);
+	}
+
+}
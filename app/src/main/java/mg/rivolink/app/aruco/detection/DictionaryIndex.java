@@ -0,0 +1,227 @@
+package mg.rivolink.app.aruco.detection;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.opencv.core.Mat;
+import org.opencv.objdetect.Dictionary;
+
+/**
+ * Java-side lookup index over the codewords of a {@link Dictionary}.
+ *
+ * Exact codewords are found with a single hash probe, error-corrected
+ * lookups use multi-index hashing: the codeword is split into
+ * maxCorrectionBits + 1 substrings, so any codeword within maxCorrectionBits
+ * shares at least one substring exactly with the query. Correction rates
+ * above 1 reach past that radius and fall back to a linear scan.
+ *
+ * Results follow the native lookup order: the lowest id within the
+ * correction radius wins, with the first rotation at its minimum distance.
+ */
+public class DictionaryIndex {
+
+	private static final Map<Dictionary, DictionaryIndex> CACHE = new WeakHashMap<>();
+
+	private final int markerSize;
+	private final int maxCorrectionBits;
+
+	// codes[id*4 + rotation]
+	private final long[] codes;
+	private final Map<Long, Integer> exact;
+
+	private final Chunk[] chunks;
+
+	public static synchronized DictionaryIndex of(Dictionary dictionary){
+		DictionaryIndex index = CACHE.get(dictionary);
+		if(index == null){
+			index = new DictionaryIndex(dictionary);
+			CACHE.put(dictionary, index);
+		}
+		return index;
+	}
+
+	public DictionaryIndex(Dictionary dictionary){
+		markerSize = dictionary.get_markerSize();
+		maxCorrectionBits = dictionary.get_maxCorrectionBits();
+
+		int nbits = markerSize*markerSize;
+		if(nbits > 64)
+			throw new IllegalArgumentException("Marker size too large for index: "+markerSize);
+
+		Mat bytesList = dictionary.get_bytesList();
+		int size = bytesList.rows();
+		int nbytes = bytesList.cols();
+		byte[] raw = new byte[size*4*nbytes];
+		bytesList.get(0, 0, raw);
+		bytesList.release();
+
+		codes = new long[size*4];
+		exact = new HashMap<>(size*8);
+
+		for(int entry = 0; entry < codes.length; entry++){
+			codes[entry] = unpack(raw, entry*nbytes, nbytes, nbits);
+			if(!exact.containsKey(codes[entry]))
+				exact.put(codes[entry], entry);
+		}
+
+		int count = Math.min(maxCorrectionBits + 1, nbits);
+		chunks = new Chunk[count];
+
+		int start = 0;
+		for(int c = 0; c < count; c++){
+			int width = nbits/count + (c < nbits%count ? 1 : 0);
+			Chunk chunk = new Chunk(nbits - start - width, width == 64 ? -1L : (1L << width) - 1);
+			start += width;
+
+			for(int entry = 0; entry < codes.length; entry++)
+				chunk.add(chunk.key(codes[entry]), entry);
+			chunks[c] = chunk;
+		}
+	}
+
+	public int getMarkerSize(){
+		return markerSize;
+	}
+
+	public int getMaxCorrectionBits(){
+		return maxCorrectionBits;
+	}
+
+	public int size(){
+		return codes.length/4;
+	}
+
+	public long getCode(int id, int rotation){
+		return codes[id*4 + rotation];
+	}
+
+	/**
+	 * Same contract as {@link Dictionary#identify(Mat, int[], int[], double)}:
+	 * the lowest id with a rotation within maxCorrectionBits*maxCorrectionRate
+	 * bits, and the first rotation at the minimum distance for that id.
+	 */
+	public boolean identify(Mat onlyBits, int[] idx, int[] rotation, double maxCorrectionRate){
+		return identify(pack(onlyBits), idx, rotation, maxCorrectionRate);
+	}
+
+	public boolean identify(long bits, int[] idx, int[] rotation, double maxCorrectionRate){
+		int maxCorrection = (int)(maxCorrectionBits*maxCorrectionRate);
+
+		if(maxCorrection <= 0){
+			// First entry holding the code: lowest id, then first rotation
+			Integer hit = exact.get(bits);
+			return hit != null && found(hit/4, bits, idx, rotation);
+		}
+
+		int best = Integer.MAX_VALUE;
+		if(maxCorrection > maxCorrectionBits){
+			// Outside the substring guarantee, scan in id order
+			for(int entry = 0; entry < codes.length && best == Integer.MAX_VALUE; entry++){
+				if(Long.bitCount(codes[entry] ^ bits) <= maxCorrection)
+					best = entry/4;
+			}
+		}
+		else {
+			for(Chunk chunk : chunks){
+				int[] bucket = chunk.get(chunk.key(bits));
+				if(bucket == null)
+					continue;
+
+				for(int entry : bucket){
+					if(entry/4 < best && Long.bitCount(codes[entry] ^ bits) <= maxCorrection)
+						best = entry/4;
+				}
+			}
+		}
+
+		return best != Integer.MAX_VALUE && found(best, bits, idx, rotation);
+	}
+
+	/**
+	 * Same contract as {@link Dictionary#getDistanceToId(Mat, int, boolean)}.
+	 */
+	public int getDistanceToId(Mat bits, int id, boolean allRotations){
+		return getDistanceToId(pack(bits), id, allRotations);
+	}
+
+	public int getDistanceToId(long bits, int id, boolean allRotations){
+		int rotations = allRotations ? 4 : 1;
+		int distance = Integer.MAX_VALUE;
+		for(int r = 0; r < rotations; r++)
+			distance = Math.min(distance, Long.bitCount(codes[id*4 + r] ^ bits));
+		return distance;
+	}
+
+	/**
+	 * Packs a markerSize x markerSize CV_8UC1 bit matrix row-major, first bit
+	 * in the most significant position, matching the dictionary byte order.
+	 */
+	public long pack(Mat onlyBits){
+		byte[] data = new byte[markerSize*markerSize];
+		onlyBits.get(0, 0, data);
+
+		long bits = 0;
+		for(byte b : data)
+			bits = (bits << 1) | (b != 0 ? 1 : 0);
+		return bits;
+	}
+
+	private boolean found(int id, long bits, int[] idx, int[] rotation){
+		int first = 0;
+		int distance = Integer.MAX_VALUE;
+		for(int r = 0; r < 4; r++){
+			int d = Long.bitCount(codes[id*4 + r] ^ bits);
+			if(d < distance){
+				distance = d;
+				first = r;
+			}
+		}
+
+		if(idx != null) idx[0] = id;
+		if(rotation != null) rotation[0] = first;
+		return true;
+	}
+
+	private static long unpack(byte[] raw, int offset, int nbytes, int nbits){
+		long bits = 0;
+		for(int j = 0; j < nbytes; j++){
+			int width = j == nbytes - 1 ? nbits - 8*(nbytes - 1) : 8;
+			bits = (bits << width) | (raw[offset + j] & 0xFF);
+		}
+		return bits;
+	}
+
+	private static final class Chunk {
+		final int shift;
+		final long mask;
+		final Map<Long, int[]> buckets = new HashMap<>();
+
+		Chunk(int shift, long mask){
+			this.shift = shift;
+			this.mask = mask;
+		}
+
+		long key(long bits){
+			return (bits >>> shift) & mask;
+		}
+
+		int[] get(long key){
+			return buckets.get(key);
+		}
+
+		void add(long key, int entry){
+			int[] bucket = buckets.get(key);
+			if(bucket == null){
+				bucket = new int[]{entry};
+			}
+			else {
+				bucket = Arrays.copyOf(bucket, bucket.length + 1);
+				bucket[bucket.length - 1] = entry;
+			}
+			buckets.put(key, bucket);
+		}
+	}
+
+}
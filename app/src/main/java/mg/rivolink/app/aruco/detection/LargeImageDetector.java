@@ -0,0 +1,405 @@
+package mg.rivolink.app.aruco.detection;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.opencv.android.Utils;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatPool;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Marker detection on still images too large to decode at full resolution.
+ *
+ * The image is reduced by the largest power of two (up to 8) that still
+ * leaves the smallest wanted marker getMinModulePixels() pixels per module.
+ * A JPEG whose reduced image fits in the pixel budget is decoded straight to
+ * grayscale in one go, the decoder scaling in the DCT domain. Other formats
+ * are decoded at full size before any reduction, so they are decoded whole
+ * only when their full size fits. Everything else is streamed in
+ * overlapping tiles through BitmapRegionDecoder, so memory follows the tile
+ * size rather than the image size.
+ *
+ * The budget counts decoded grayscale pixels only, it is not a memory cap:
+ * a whole decode also holds the encoded file, and a tile its ARGB bitmap
+ * and RGBA copy besides the gray one. Tiles are never smaller than twice
+ * the largest marker, whatever the tile size.
+ *
+ * Tiles overlap by the largest marker side, and a marker is only kept by the
+ * tile whose core (the tile minus half the overlap on interior sides) holds
+ * its center; the cores partition the image, so every marker is reported
+ * once. Corners are always in original image coordinates.
+ */
+public class LargeImageDetector {
+
+	public static final int DEFAULT_MIN_MARKER_PIXELS = 64;
+	public static final int DEFAULT_MAX_MARKER_PIXELS = 1024;
+	public static final long DEFAULT_MAX_DECODE_PIXELS = 16L*1024*1024;
+	public static final int DEFAULT_TILE_SIZE = 2048;
+	public static final int DEFAULT_MIN_MODULE_PIXELS = 3;
+
+	public interface Source {
+		InputStream open() throws IOException;
+	}
+
+	private final MarkerDetector detector;
+	private final MatPool matPool = new MatPool(1);
+	private final DetectionResult tileResult = new DetectionResult();
+	private final float[] quad = new float[DetectionResult.CORNER_FLOATS];
+
+	private int minMarkerPixels = DEFAULT_MIN_MARKER_PIXELS;
+	private int maxMarkerPixels = DEFAULT_MAX_MARKER_PIXELS;
+	private long maxDecodePixels = DEFAULT_MAX_DECODE_PIXELS;
+	private int tileSize = DEFAULT_TILE_SIZE;
+	private int minModulePixels = DEFAULT_MIN_MODULE_PIXELS;
+
+	private int width;
+	private int height;
+	private boolean jpeg;
+	private int sampleSize;
+	private int tileCount;
+	private long decodeNanos;
+
+	public LargeImageDetector(MarkerDetector detector){
+		this.detector = detector;
+	}
+
+	public static Source fromUri(final ContentResolver resolver, final Uri uri){
+		return new Source(){
+			@Override
+			public InputStream open() throws IOException {
+				InputStream in = resolver.openInputStream(uri);
+				if(in == null)
+					throw new IOException("Cannot open "+uri);
+				return in;
+			}
+		};
+	}
+
+	public static Source fromFile(final File file){
+		return new Source(){
+			@Override
+			public InputStream open() throws IOException {
+				return new FileInputStream(file);
+			}
+		};
+	}
+
+	/**
+	 * Side in original pixels of the smallest and largest markers to find.
+	 * The smallest sets the reduction, the largest the tile overlap.
+	 */
+	public void setMarkerPixels(int minMarkerPixels, int maxMarkerPixels){
+		if(minMarkerPixels < 1 || maxMarkerPixels < minMarkerPixels)
+			throw new IllegalArgumentException("Invalid marker sizes: "+minMarkerPixels+", "+maxMarkerPixels);
+		this.minMarkerPixels = minMarkerPixels;
+		this.maxMarkerPixels = maxMarkerPixels;
+	}
+
+	/**
+	 * Largest reduced image decoded in one piece, and the tile side used
+	 * beyond it, both in decoded pixels. The tile side is raised to twice
+	 * the largest marker when smaller.
+	 */
+	public void setDecodeBudget(long maxDecodePixels, int tileSize){
+		this.maxDecodePixels = maxDecodePixels;
+		this.tileSize = tileSize;
+	}
+
+	public void setMinModulePixels(int minModulePixels){
+		this.minModulePixels = minModulePixels;
+	}
+
+	public int getMinModulePixels(){
+		return minModulePixels;
+	}
+
+	/**
+	 * Size of the last image, in original pixels.
+	 */
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+	/**
+	 * Reduction of the last decode, 1 for full resolution.
+	 */
+	public int getSampleSize(){
+		return sampleSize;
+	}
+
+	/**
+	 * Tiles decoded for the last image, 0 when it was decoded whole.
+	 */
+	public int getTileCount(){
+		return tileCount;
+	}
+
+	/**
+	 * Time spent reading and decoding the last image, detection excluded.
+	 */
+	public long getDecodeNanos(){
+		return decodeNanos;
+	}
+
+	/**
+	 * Detects the markers of the image into result, replacing its content.
+	 */
+	public void detect(Source source, DetectionResult result) throws IOException {
+		result.clear();
+		tileCount = 0;
+		decodeNanos = 0;
+
+		long start = System.nanoTime();
+		readBounds(source);
+		decodeNanos += System.nanoTime() - start;
+		sampleSize = chooseSampleSize();
+
+		// Only the JPEG decoder reduces while decoding, the others allocate
+		// the full image first
+		long decoded = jpeg
+			? (long)((width + sampleSize - 1)/sampleSize)*((height + sampleSize - 1)/sampleSize)
+			: (long)width*height;
+		if(decoded <= maxDecodePixels)
+			detectWhole(source, result);
+		else
+			detectTiles(source, result);
+	}
+
+	public void release(){
+		matPool.clear();
+	}
+
+	private void readBounds(Source source) throws IOException {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+
+		InputStream in = source.open();
+		try {
+			BitmapFactory.decodeStream(in, null, options);
+		}
+		finally {
+			in.close();
+		}
+
+		if(options.outWidth <= 0 || options.outHeight <= 0)
+			throw new IOException("Unsupported image format");
+		width = options.outWidth;
+		height = options.outHeight;
+		jpeg = "image/jpeg".equals(options.outMimeType);
+	}
+
+	private int chooseSampleSize(){
+		int modules = detector.getDictionary().get_markerSize() + 2*detector.getParameters().get_markerBorderBits();
+		int minPixels = modules*minModulePixels;
+
+		int sample = 1;
+		while(sample < 8 && minMarkerPixels/(sample*2) >= minPixels)
+			sample *= 2;
+		return sample;
+	}
+
+	private void detectWhole(Source source, DetectionResult result) throws IOException {
+		long start = System.nanoTime();
+		Mat encoded = readEncoded(source);
+		// Stored orientation, like BitmapFactory and the tiles
+		Mat gray = Imgcodecs.imdecode(encoded, reducedGrayscale(sampleSize) | Imgcodecs.IMREAD_IGNORE_ORIENTATION);
+		encoded.release();
+		decodeNanos += System.nanoTime() - start;
+
+		try {
+			if(gray.empty())
+				throw new IOException("Cannot decode image");
+
+			detector.detect(gray, tileResult);
+			addMapped(tileResult, 0, 0, width/(float)gray.cols(), height/(float)gray.rows(), null, result);
+		}
+		finally {
+			gray.release();
+		}
+	}
+
+	private void detectTiles(Source source, DetectionResult result) throws IOException {
+		long start = System.nanoTime();
+		InputStream in = source.open();
+		BitmapRegionDecoder decoder;
+		try {
+			decoder = BitmapRegionDecoder.newInstance(in, false);
+		}
+		finally {
+			in.close();
+		}
+		decodeNanos += System.nanoTime() - start;
+
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inSampleSize = sampleSize;
+		options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+		options.inMutable = true;
+
+		// Tile geometry in original pixels
+		int overlap = maxMarkerPixels;
+		int side = Math.max(tileSize*sampleSize, 2*overlap);
+		int step = side - overlap;
+		int half = overlap/2;
+
+		Rect region = new Rect();
+		Rect core = new Rect();
+
+		// Reused for full size tiles only: a reused bitmap keeps its size,
+		// which would leave stale pixels around smaller edge tiles
+		Bitmap fullTile = null;
+		try {
+			for(int top = 0; top < height; top += step){
+				int bottom = Math.min(top + side, height);
+				for(int left = 0; left < width; left += step){
+					int right = Math.min(left + side, width);
+					region.set(left, top, right, bottom);
+
+					// Cores meet at half the overlap past each tile start
+					core.set(left == 0 ? 0 : left + half, top == 0 ? 0 : top + half,
+						right == width ? width : left + step + half,
+						bottom == height ? height : top + step + half);
+
+					boolean full = right - left == side && bottom - top == side;
+					options.inBitmap = full ? fullTile : null;
+					start = System.nanoTime();
+					Bitmap tile = decoder.decodeRegion(region, options);
+					decodeNanos += System.nanoTime() - start;
+					if(tile == null)
+						throw new IOException("Cannot decode region");
+
+					try {
+						detectTile(tile, region, core, result);
+						tileCount++;
+					}
+					finally {
+						if(full)
+							fullTile = tile;
+						else
+							tile.recycle();
+					}
+
+					if(right == width)
+						break;
+				}
+				if(bottom == height)
+					break;
+			}
+		}
+		finally {
+			if(fullTile != null)
+				fullTile.recycle();
+			decoder.recycle();
+		}
+	}
+
+	private void detectTile(Bitmap tile, Rect region, Rect core, DetectionResult result){
+		int cols = tile.getWidth();
+		int rows = tile.getHeight();
+
+		Mat rgba = matPool.acquire(rows, cols, CvType.CV_8UC4);
+		Mat gray = matPool.acquire(rows, cols, CvType.CV_8UC1);
+		try {
+			long start = System.nanoTime();
+			Utils.bitmapToMat(tile, rgba);
+			Imgproc.cvtColor(rgba, gray, Imgproc.COLOR_RGBA2GRAY);
+			decodeNanos += System.nanoTime() - start;
+			detector.detect(gray, tileResult);
+		}
+		finally {
+			matPool.release(rgba);
+			matPool.release(gray);
+		}
+
+		addMapped(tileResult, region.left, region.top,
+			region.width()/(float)cols, region.height()/(float)rows, core, result);
+	}
+
+	// Adds the markers of tile to result in original coordinates, only
+	// those whose center lies in core when one is given
+	private void addMapped(DetectionResult tile, int left, int top, float scaleX, float scaleY, Rect core, DetectionResult result){
+		float[] corners = tile.getCorners();
+		for(int i = 0; i < tile.size(); i++){
+			float cx = 0, cy = 0;
+			for(int k = 0; k < 4; k++){
+				int offset = i*DetectionResult.CORNER_FLOATS + 2*k;
+				// Pixel centers, not edges, map onto each other
+				quad[2*k] = left + (corners[offset] + 0.5f)*scaleX - 0.5f;
+				quad[2*k + 1] = top + (corners[offset + 1] + 0.5f)*scaleY - 0.5f;
+				cx += quad[2*k];
+				cy += quad[2*k + 1];
+			}
+
+			cx /= 4;
+			cy /= 4;
+			if(core != null && (cx < core.left || cx >= core.right || cy < core.top || cy >= core.bottom))
+				continue;
+
+			result.add(tile.getId(i), quad, 0);
+		}
+	}
+
+	/**
+	 * Reads the encoded file into a native buffer for Imgcodecs.imdecode(),
+	 * streamed in small chunks without a full size Java copy.
+	 */
+	public static Mat readEncoded(Source source) throws IOException {
+		InputStream in = source.open();
+		byte[] chunk = new byte[1 << 16];
+		Mat encoded = new Mat(1, chunk.length*16, CvType.CV_8UC1);
+		int size = 0;
+		try {
+			int read;
+			while((read = in.read(chunk)) > 0){
+				if(size + read > encoded.cols()){
+					Mat grown = new Mat(1, Math.max(size + read, encoded.cols()*2), CvType.CV_8UC1);
+					Mat from = encoded.colRange(0, size);
+					Mat to = grown.colRange(0, size);
+					from.copyTo(to);
+					from.release();
+					to.release();
+					encoded.release();
+					encoded = grown;
+				}
+				encoded.put(0, size, chunk, 0, read);
+				size += read;
+			}
+		}
+		catch(IOException e){
+			encoded.release();
+			throw e;
+		}
+		finally {
+			in.close();
+		}
+
+		Mat data = encoded.colRange(0, size);
+		encoded.release();
+		return data;
+	}
+
+	private static int reducedGrayscale(int sampleSize){
+		switch(sampleSize){
+			case 2: return Imgcodecs.IMREAD_REDUCED_GRAYSCALE_2;
+			case 4: return Imgcodecs.IMREAD_REDUCED_GRAYSCALE_4;
+			case 8: return Imgcodecs.IMREAD_REDUCED_GRAYSCALE_8;
+			default: return Imgcodecs.IMREAD_GRAYSCALE;
+		}
+	}
+
+}
@@ -0,0 +1,356 @@
+package mg.rivolink.app.aruco.detection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.ArucoDetector;
+import org.opencv.objdetect.DetectorParameters;
+import org.opencv.objdetect.Dictionary;
+import org.opencv.objdetect.Objdetect;
+
+/**
+ * ArucoDetector front end with an optional allow-list of marker IDs.
+ *
+ * When an allow-list is set, native corner refinement is turned off and only
+ * runs on the markers that pass the filter, so foreign markers never cost
+ * refinement or pose work: cornerSubPix for subpixel refinement, a second
+ * native detection on a crop around the marker for contour and AprilTag
+ * refinement. That detection only holds the code of the marker's id, so it
+ * never scans the dictionary. The parameters given to the constructor are
+ * never modified.
+ *
+ * Dictionaries of INDEXED_MIN_SIZE codes or more are identified through a
+ * {@link DictionaryIndex}: the native detector runs on a one-code dictionary
+ * so it only extracts candidates, and the candidates it rejects are decoded
+ * and looked up in Java. Markers identified that way are refined as with an
+ * allow-list.
+ */
+public class MarkerDetector {
+
+	public static final int INDEXED_MIN_SIZE = 512;
+
+	private final Dictionary dictionary;
+	private final DetectorParameters parameters;
+	private final ArucoDetector detector;
+	private final CandidateDecoder decoder;
+	private final Mat codes;
+	private ArucoDetector refiner;
+	private int refinerId = -1;
+
+	private final int refinementMethod;
+	private final TermCriteria criteria;
+
+	private BitSet allowedIds;
+	private int rejectedCount;
+	private int nativeCount;
+
+	private final Mat rawIds = new Mat();
+	private final List<Mat> rawCorners = new ArrayList<>();
+	private int[] idBuffer = new int[16];
+	private final float[] cornerBuffer = new float[8];
+	private final List<Mat> candidates = new ArrayList<>();
+	private final List<Mat> cropCorners = new ArrayList<>();
+	private final Mat cropIds = new Mat();
+
+	private final List<Mat> resultCorners = new ArrayList<>();
+	private final Mat resultIds = new Mat();
+	private final Mat packedCorners = new Mat();
+
+	public MarkerDetector(Dictionary dictionary, DetectorParameters parameters){
+		this.dictionary = dictionary;
+		this.parameters = parameters;
+		this.refinementMethod = parameters.get_cornerRefinementMethod();
+		this.criteria = new TermCriteria(
+			TermCriteria.MAX_ITER | TermCriteria.EPS,
+			parameters.get_cornerRefinementMaxIterations(),
+			parameters.get_cornerRefinementMinAccuracy()
+		);
+
+		Mat bytesList = dictionary.get_bytesList();
+		this.codes = bytesList;
+		boolean indexed = bytesList.rows() >= INDEXED_MIN_SIZE && dictionary.get_markerSize() <= 8;
+		if(indexed){
+			// Native identification only has code 0 left to scan, which keeps
+			// its id; every other candidate comes back rejected
+			Mat first = bytesList.row(0).clone();
+			this.detector = new ArucoDetector(new Dictionary(first, dictionary.get_markerSize(), dictionary.get_maxCorrectionBits()), parameters);
+			this.decoder = new CandidateDecoder(DictionaryIndex.of(dictionary), parameters);
+			first.release();
+		}
+		else {
+			this.detector = new ArucoDetector(dictionary, parameters);
+			this.decoder = null;
+		}
+	}
+
+	public Dictionary getDictionary(){
+		return dictionary;
+	}
+
+	public DetectorParameters getParameters(){
+		return parameters;
+	}
+
+	/**
+	 * Whether IDs are looked up in a DictionaryIndex rather than natively.
+	 */
+	public boolean isIndexed(){
+		return decoder != null;
+	}
+
+	/**
+	 * Restricts detection to the given IDs, or accepts every ID when null.
+	 */
+	public void setAllowedIds(BitSet allowedIds){
+		this.allowedIds = allowedIds;
+
+		// The detector holds its own copy, the caller's parameters stay as given
+		boolean deferRefinement = allowedIds != null && refinementMethod != Objdetect.CORNER_REFINE_NONE;
+		DetectorParameters detectorParameters = detector.getDetectorParameters();
+		detectorParameters.set_cornerRefinementMethod(deferRefinement ? Objdetect.CORNER_REFINE_NONE : refinementMethod);
+		detector.setDetectorParameters(detectorParameters);
+	}
+
+	/**
+	 * Parses an ID list such as "0-49,60", null for an empty one.
+	 */
+	public static BitSet parseIds(String spec){
+		if(spec == null || spec.trim().isEmpty())
+			return null;
+
+		BitSet ids = new BitSet();
+		for(String field : spec.split(",")){
+			field = field.trim();
+			int dash = field.indexOf('-', 1);
+			int from = Integer.parseInt(dash < 0 ? field : field.substring(0, dash).trim());
+			int to = dash < 0 ? from : Integer.parseInt(field.substring(dash + 1).trim());
+			if(from < 0 || to < from)
+				throw new IllegalArgumentException("Invalid marker id range: "+field);
+			ids.set(from, to + 1);
+		}
+		return ids;
+	}
+
+	public void allowIdRange(int fromId, int toId){
+		BitSet ids = allowedIds != null ? (BitSet)allowedIds.clone() : new BitSet(toId + 1);
+		ids.set(fromId, toId + 1);
+		setAllowedIds(ids);
+	}
+
+	public BitSet getAllowedIds(){
+		return allowedIds;
+	}
+
+	/**
+	 * Number of markers dropped by the allow-list during the last call to detect.
+	 */
+	public int getRejectedCount(){
+		return rejectedCount;
+	}
+
+	public void detect(Mat gray, List<Mat> corners, Mat ids){
+		rejectedCount = 0;
+
+		if(allowedIds == null && decoder == null){
+			detector.detectMarkers(gray, corners, ids);
+			return;
+		}
+
+		rawCorners.clear();
+		int count = decoder != null ? detectIndexed(gray) : detectRaw(gray);
+
+		int kept = 0;
+		for(int i = 0; i < count; i++){
+			Mat markerCorners = rawCorners.get(i);
+			if(allowedIds == null || allowedIds.get(idBuffer[i])){
+				if(allowedIds != null || i >= nativeCount)
+					refine(gray, markerCorners, idBuffer[i]);
+
+				corners.add(markerCorners);
+				idBuffer[kept++] = idBuffer[i];
+			}
+			else {
+				markerCorners.release();
+				rejectedCount++;
+			}
+		}
+
+		ids.create(kept, 1, CvType.CV_32SC1);
+		if(kept > 0)
+			ids.put(0, 0, idBuffer);
+
+		rawCorners.clear();
+	}
+
+	/**
+	 * Detects into a reusable primitive result. All corners of the frame are
+	 * packed natively and read with a single transfer; the allow-list is
+	 * then applied on the arrays.
+	 */
+	public void detect(Mat gray, DetectionResult result){
+		if(decoder != null || (allowedIds != null && refinementMethod != Objdetect.CORNER_REFINE_NONE)){
+			// Java identification and deferred refinement need the per-marker Mats
+			detect(gray, resultCorners, resultIds);
+			result.fromMats(resultCorners, resultIds, packedCorners);
+
+			for(Mat markerCorners : resultCorners)
+				markerCorners.release();
+			resultCorners.clear();
+			return;
+		}
+
+		detector.detectMarkers(gray, packedCorners, resultIds);
+		result.fromPacked(packedCorners, resultIds);
+		rejectedCount = allowedIds != null ? result.retainIds(allowedIds) : 0;
+	}
+
+	public void release(){
+		codes.release();
+		rawIds.release();
+		cropIds.release();
+		resultIds.release();
+		packedCorners.release();
+	}
+
+	// Native detection into rawCorners and idBuffer
+	private int detectRaw(Mat gray){
+		detector.detectMarkers(gray, rawCorners, rawIds);
+		nativeCount = readIds(rawCorners.size());
+		return nativeCount;
+	}
+
+	// Native hits of code 0 first, then the rejected candidates the index
+	// identifies
+	private int detectIndexed(Mat gray){
+		candidates.clear();
+		detector.detectMarkers(gray, rawCorners, rawIds, candidates);
+		nativeCount = readIds(rawCorners.size());
+
+		int count = nativeCount;
+		decoder.load(gray);
+		for(Mat candidate : candidates){
+			candidate.get(0, 0, cornerBuffer);
+			int id = decoder.decode(cornerBuffer, 0);
+			if(id < 0){
+				candidate.release();
+				continue;
+			}
+
+			candidate.put(0, 0, cornerBuffer);
+			rawCorners.add(candidate);
+			if(idBuffer.length <= count)
+				idBuffer = Arrays.copyOf(idBuffer, idBuffer.length*2);
+			idBuffer[count++] = id;
+		}
+		candidates.clear();
+		return count;
+	}
+
+	private int readIds(int count){
+		if(idBuffer.length < count)
+			idBuffer = new int[Math.max(count, idBuffer.length*2)];
+		if(count > 0)
+			rawIds.get(0, 0, idBuffer);
+		return count;
+	}
+
+	// Refinement deferred from the native detection
+	private void refine(Mat gray, Mat markerCorners, int id){
+		switch(refinementMethod){
+			case Objdetect.CORNER_REFINE_SUBPIX:
+				refineCorners(gray, markerCorners);
+				break;
+			case Objdetect.CORNER_REFINE_CONTOUR:
+			case Objdetect.CORNER_REFINE_APRILTAG:
+				redetect(gray, markerCorners, id);
+				break;
+		}
+	}
+
+	// Contour and AprilTag refinement only exist natively: runs the
+	// detector with the original parameters and the code of id alone on a
+	// crop around the marker, and keeps its corners when it finds the marker
+	// there, as id 0
+	private void redetect(Mat gray, Mat markerCorners, int id){
+		if(refinerId != id){
+			Mat code = codes.row(id);
+			Dictionary single = new Dictionary(code, dictionary.get_markerSize(), dictionary.get_maxCorrectionBits());
+			code.release();
+
+			if(refiner == null)
+				refiner = new ArucoDetector(single, parameters);
+			else
+				refiner.setDictionary(single);
+			refinerId = id;
+		}
+
+		markerCorners.get(0, 0, cornerBuffer);
+		float minX = cornerBuffer[0], maxX = minX, minY = cornerBuffer[1], maxY = minY;
+		for(int k = 1; k < 4; k++){
+			minX = Math.min(minX, cornerBuffer[2*k]);
+			maxX = Math.max(maxX, cornerBuffer[2*k]);
+			minY = Math.min(minY, cornerBuffer[2*k + 1]);
+			maxY = Math.max(maxY, cornerBuffer[2*k + 1]);
+		}
+
+		// Room for the quiet zone and minDistanceToBorder
+		int margin = (int)(Math.max(maxX - minX, maxY - minY)/4) + parameters.get_minDistanceToBorder() + 2;
+		int left = Math.max(0, (int)minX - margin);
+		int top = Math.max(0, (int)minY - margin);
+		int right = Math.min(gray.cols(), (int)Math.ceil(maxX) + margin);
+		int bottom = Math.min(gray.rows(), (int)Math.ceil(maxY) + margin);
+		if(right <= left || bottom <= top)
+			return;
+
+		Mat crop = gray.submat(top, bottom, left, right);
+		try {
+			refiner.detectMarkers(crop, cropCorners, cropIds);
+
+			int count = cropCorners.size();
+			for(int i = 0; i < count; i++){
+				if((int)cropIds.get(i, 0)[0] != 0)
+					continue;
+
+				cropCorners.get(i).get(0, 0, cornerBuffer);
+				for(int k = 0; k < 4; k++){
+					cornerBuffer[2*k] += left;
+					cornerBuffer[2*k + 1] += top;
+				}
+				markerCorners.put(0, 0, cornerBuffer);
+				break;
+			}
+		}
+		finally {
+			crop.release();
+			for(Mat corners : cropCorners)
+				corners.release();
+			cropCorners.clear();
+		}
+	}
+
+	private void refineCorners(Mat gray, Mat markerCorners){
+		markerCorners.get(0, 0, cornerBuffer);
+
+		double perimeter = 0;
+		for(int j = 0; j < 4; j++){
+			int k = (j + 1)%4;
+			perimeter += Math.hypot(cornerBuffer[2*k] - cornerBuffer[2*j], cornerBuffer[2*k + 1] - cornerBuffer[2*j + 1]);
+		}
+
+		int modules = dictionary.get_markerSize() + 2*parameters.get_markerBorderBits();
+		double moduleSize = perimeter/4.0/modules;
+
+		int winSize = (int)Math.round(parameters.get_relativeCornerRefinmentWinSize()*moduleSize);
+		winSize = Math.max(1, Math.min(parameters.get_cornerRefinementWinSize(), winSize));
+
+		Imgproc.cornerSubPix(gray, markerCorners, new Size(winSize, winSize), new Size(-1, -1), criteria);
+	}
+
+}
@@ -0,0 +1,102 @@
+package mg.rivolink.app.aruco.detection;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Cheap scene change detector deciding when full marker detection is needed.
+ *
+ * Each frame is reduced to a tiny gray thumbnail and compared with the
+ * thumbnail of the last detected frame by mean absolute difference.
+ * Detection is forced when the difference exceeds the threshold or when the
+ * previous results are older than the maximum staleness.
+ */
+public class MotionGate {
+
+	public static final int DEFAULT_WIDTH = 32;
+	public static final int DEFAULT_HEIGHT = 24;
+	public static final double DEFAULT_THRESHOLD = 2.0;
+	public static final int DEFAULT_MAX_STALE_FRAMES = 30;
+
+	private final Size thumbnailSize;
+
+	private double threshold;
+	private int maxStaleFrames;
+
+	private final Mat current = new Mat();
+	private final Mat reference = new Mat();
+	private final Mat difference = new Mat();
+
+	private boolean hasReference = false;
+	private int staleFrames = 0;
+	private double lastChange = 0;
+
+	public MotionGate(){
+		this(DEFAULT_WIDTH, DEFAULT_HEIGHT, DEFAULT_THRESHOLD, DEFAULT_MAX_STALE_FRAMES);
+	}
+
+	/**
+	 * @param threshold mean absolute gray level difference (0-255) above which the scene counts as changed
+	 * @param maxStaleFrames maximum number of consecutive frames reusing previous results
+	 */
+	public MotionGate(int width, int height, double threshold, int maxStaleFrames){
+		this.thumbnailSize = new Size(width, height);
+		this.threshold = threshold;
+		this.maxStaleFrames = maxStaleFrames;
+	}
+
+	public void setThreshold(double threshold){
+		this.threshold = threshold;
+	}
+
+	public void setMaxStaleFrames(int maxStaleFrames){
+		this.maxStaleFrames = maxStaleFrames;
+	}
+
+	/**
+	 * Returns true when the caller must run full detection on this frame,
+	 * false when the previous detections and poses can be reused.
+	 */
+	public boolean shouldDetect(Mat gray){
+		Imgproc.resize(gray, current, thumbnailSize, 0, 0, Imgproc.INTER_AREA);
+
+		if(hasReference && staleFrames < maxStaleFrames){
+			Core.absdiff(current, reference, difference);
+			lastChange = Core.mean(difference).val[0];
+
+			if(lastChange <= threshold){
+				staleFrames++;
+				return false;
+			}
+		}
+
+		current.copyTo(reference);
+		hasReference = true;
+		staleFrames = 0;
+		return true;
+	}
+
+	/**
+	 * Forces detection on the next frame.
+	 */
+	public void invalidate(){
+		hasReference = false;
+	}
+
+	public double getLastChange(){
+		return lastChange;
+	}
+
+	public int getStaleFrames(){
+		return staleFrames;
+	}
+
+	public void release(){
+		current.release();
+		reference.release();
+		difference.release();
+	}
+
+}
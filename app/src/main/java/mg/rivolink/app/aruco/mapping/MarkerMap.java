@@ -0,0 +1,179 @@
+package mg.rivolink.app.aruco.mapping;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.objdetect.Board;
+import org.opencv.objdetect.Dictionary;
+
+import mg.rivolink.app.aruco.pose.PoseMath;
+
+/**
+ * Immutable set of marker poses expressed in a common world frame
+ * (the frame of the first mapped marker).
+ *
+ * Stored on disk as: magic, version, marker length, count, then for every
+ * marker its id followed by rvec and tvec as floats (28 bytes per marker).
+ */
+public class MarkerMap {
+
+	private static final int MAGIC = 0x414D4150; // "AMAP"
+	private static final int VERSION = 1;
+
+	private final float markerLength;
+	private final int[] ids;
+	// PoseMath transforms (marker to world), TRANSFORM_SIZE doubles per marker
+	private final double[] poses;
+
+	public MarkerMap(float markerLength, int[] ids, double[] poses){
+		this.markerLength = markerLength;
+		this.ids = ids;
+		this.poses = poses;
+	}
+
+	public float getMarkerLength(){
+		return markerLength;
+	}
+
+	public int size(){
+		return ids.length;
+	}
+
+	public int getId(int index){
+		return ids[index];
+	}
+
+	public int indexOf(int id){
+		for(int i = 0; i < ids.length; i++){
+			if(ids[i] == id)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Copies the marker-to-world transform of the marker at index into out.
+	 */
+	public void getPose(int index, double[] out){
+		System.arraycopy(poses, index*PoseMath.TRANSFORM_SIZE, out, 0, PoseMath.TRANSFORM_SIZE);
+	}
+
+	/**
+	 * World coordinates of the four marker corners, in the same order and
+	 * marker frame convention as MainActivity.estimateMarkerPose.
+	 */
+	public void getCorners(int index, double[] out){
+		double h = markerLength/2.0;
+		double[] pose = new double[PoseMath.TRANSFORM_SIZE];
+		getPose(index, pose);
+
+		PoseMath.transformPoint(pose, -h, -h, 0, out, 0);
+		PoseMath.transformPoint(pose,  h, -h, 0, out, 3);
+		PoseMath.transformPoint(pose,  h,  h, 0, out, 6);
+		PoseMath.transformPoint(pose, -h,  h, 0, out, 9);
+	}
+
+	/**
+	 * Board whose object points are the mapped markers in world coordinates,
+	 * so localization is a single solve against the whole map.
+	 */
+	public Board toBoard(Dictionary dictionary){
+		List<Mat> objPoints = new ArrayList<>(ids.length);
+		double[] corners = new double[12];
+		float[] data = new float[12];
+
+		for(int i = 0; i < ids.length; i++){
+			getCorners(i, corners);
+			for(int k = 0; k < 12; k++)
+				data[k] = (float)corners[k];
+
+			Mat points = new Mat(4, 1, CvType.CV_32FC3);
+			points.put(0, 0, data);
+			objPoints.add(points);
+		}
+
+		MatOfInt boardIds = new MatOfInt(ids);
+		Board board = new Board(objPoints, dictionary, boardIds);
+
+		boardIds.release();
+		for(Mat points : objPoints)
+			points.release();
+
+		return board;
+	}
+
+	public void save(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeFloat(markerLength);
+			out.writeInt(ids.length);
+
+			double[] pose = new double[PoseMath.TRANSFORM_SIZE];
+			double[] rvec = new double[3];
+			double[] tvec = new double[3];
+
+			for(int i = 0; i < ids.length; i++){
+				getPose(i, pose);
+				PoseMath.toRvecTvec(pose, rvec, 0, tvec, 0);
+
+				out.writeInt(ids[i]);
+				for(int k = 0; k < 3; k++)
+					out.writeFloat((float)rvec[k]);
+				for(int k = 0; k < 3; k++)
+					out.writeFloat((float)tvec[k]);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	public static MarkerMap load(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if(in.readInt() != MAGIC)
+				throw new IOException("Not a marker map: "+file);
+			if(in.readInt() != VERSION)
+				throw new IOException("Unsupported marker map version: "+file);
+
+			float markerLength = in.readFloat();
+			int count = in.readInt();
+
+			int[] ids = new int[count];
+			double[] poses = new double[count*PoseMath.TRANSFORM_SIZE];
+			double[] pose = new double[PoseMath.TRANSFORM_SIZE];
+			double[] rvec = new double[3];
+			double[] tvec = new double[3];
+
+			for(int i = 0; i < count; i++){
+				ids[i] = in.readInt();
+				for(int k = 0; k < 3; k++)
+					rvec[k] = in.readFloat();
+				for(int k = 0; k < 3; k++)
+					tvec[k] = in.readFloat();
+
+				PoseMath.fromRvecTvec(rvec, 0, tvec, 0, pose);
+				System.arraycopy(pose, 0, poses, i*PoseMath.TRANSFORM_SIZE, PoseMath.TRANSFORM_SIZE);
+			}
+
+			return new MarkerMap(markerLength, ids, poses);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+}
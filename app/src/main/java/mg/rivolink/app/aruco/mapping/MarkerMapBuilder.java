@@ -0,0 +1,327 @@
+package mg.rivolink.app.aruco.mapping;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import mg.rivolink.app.aruco.pose.PoseMath;
+
+/**
+ * Incremental marker map builder.
+ *
+ * Every frame seeing two or more markers adds marker-to-marker relative
+ * transforms to a pose graph (one averaged edge per marker pair). Whenever
+ * the graph changed, a background thread re-optimizes the world poses,
+ * starting from the previous solution, and publishes a new MarkerMap.
+ */
+public class MarkerMapBuilder {
+
+	private static final int ITERATIONS = 20;
+	private static final int T = PoseMath.TRANSFORM_SIZE;
+
+	private static class Edge {
+		final int from;
+		final int to;
+
+		// Running sums of the observed from-to-to transform
+		final double[] quaternion = new double[4];
+		final double[] translation = new double[3];
+		int count = 0;
+
+		Edge(int from, int to){
+			this.from = from;
+			this.to = to;
+		}
+
+		Edge copy(){
+			Edge edge = new Edge(from, to);
+			System.arraycopy(quaternion, 0, edge.quaternion, 0, 4);
+			System.arraycopy(translation, 0, edge.translation, 0, 3);
+			edge.count = count;
+			return edge;
+		}
+
+		/**
+		 * Average transform mapping "to" marker coordinates into "from" marker coordinates.
+		 */
+		void average(double[] out){
+			PoseMath.quaternionToMatrix(quaternion, 0, out, 0);
+			out[9] = translation[0]/count;
+			out[10] = translation[1]/count;
+			out[11] = translation[2]/count;
+		}
+	}
+
+	private final float markerLength;
+
+	private final Object lock = new Object();
+	private final Map<Long, Edge> edges = new HashMap<>();
+	private int rootId = -1;
+	private boolean dirty = false;
+	private boolean optimizing = false;
+	private boolean shutdown = false;
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private volatile MarkerMap map;
+
+	// Camera-thread scratch
+	private final double[] cameraFromA = new double[T];
+	private final double[] cameraFromB = new double[T];
+	private final double[] aFromCamera = new double[T];
+	private final double[] aFromB = new double[T];
+	private final double[] quaternion = new double[4];
+
+	public MarkerMapBuilder(float markerLength){
+		this.markerLength = markerLength;
+	}
+
+	/**
+	 * Starts from an existing map, e.g. one loaded from disk.
+	 */
+	public MarkerMapBuilder(MarkerMap initial){
+		this(initial.getMarkerLength());
+		this.map = initial;
+		if(initial.size() > 0)
+			this.rootId = initial.getId(0);
+	}
+
+	public MarkerMap getMap(){
+		return map;
+	}
+
+	/**
+	 * Adds one frame of per-marker camera poses (rvec/tvec, three doubles per marker).
+	 * Ignored once shutdown() was called.
+	 */
+	public void addObservations(int[] ids, double[] rvecs, double[] tvecs, int count){
+		if(count < 2)
+			return;
+
+		synchronized(lock){
+			if(shutdown)
+				return;
+			if(rootId < 0)
+				rootId = ids[0];
+
+			for(int i = 0; i < count; i++){
+				PoseMath.fromRvecTvec(rvecs, i*3, tvecs, i*3, cameraFromA);
+				PoseMath.invert(cameraFromA, aFromCamera);
+
+				for(int j = i + 1; j < count; j++){
+					if(ids[i] == ids[j])
+						continue;
+
+					PoseMath.fromRvecTvec(rvecs, j*3, tvecs, j*3, cameraFromB);
+					PoseMath.compose(aFromCamera, cameraFromB, aFromB);
+
+					int from = ids[i], to = ids[j];
+					if(from > to){
+						PoseMath.invert(aFromB, aFromB);
+						from = ids[j];
+						to = ids[i];
+					}
+
+					long key = ((long)from << 32) | (to & 0xFFFFFFFFL);
+					Edge edge = edges.get(key);
+					if(edge == null){
+						edge = new Edge(from, to);
+						edges.put(key, edge);
+					}
+
+					PoseMath.matrixToQuaternion(aFromB, 0, quaternion, 0);
+					double sign = edge.count > 0 && dot(edge.quaternion, quaternion) < 0 ? -1 : 1;
+					for(int k = 0; k < 4; k++)
+						edge.quaternion[k] += sign*quaternion[k];
+					for(int k = 0; k < 3; k++)
+						edge.translation[k] += aFromB[9 + k];
+					edge.count++;
+				}
+			}
+
+			dirty = true;
+			if(!optimizing){
+				optimizing = true;
+				executor.execute(new Runnable(){
+					@Override
+					public void run(){
+						optimizeLoop();
+					}
+				});
+			}
+		}
+	}
+
+	public void shutdown(){
+		synchronized(lock){
+			shutdown = true;
+		}
+		executor.shutdown();
+	}
+
+	private void optimizeLoop(){
+		while(true){
+			List<Edge> snapshot;
+			int root;
+
+			synchronized(lock){
+				if(!dirty){
+					optimizing = false;
+					return;
+				}
+				dirty = false;
+				root = rootId;
+
+				snapshot = new ArrayList<>(edges.size());
+				for(Edge edge : edges.values())
+					snapshot.add(edge.copy());
+			}
+
+			map = optimize(snapshot, root, map);
+		}
+	}
+
+	private MarkerMap optimize(List<Edge> snapshot, int root, MarkerMap previous){
+		Map<Integer, List<Edge>> adjacency = new HashMap<>();
+		Map<Edge, double[]> averages = new HashMap<>();
+
+		for(Edge edge : snapshot){
+			double[] average = new double[T];
+			edge.average(average);
+			averages.put(edge, average);
+
+			addAdjacent(adjacency, edge.from, edge);
+			addAdjacent(adjacency, edge.to, edge);
+		}
+
+		Map<Integer, double[]> world = new HashMap<>();
+
+		// Initialization: keep previous poses, then breadth-first over the graph
+		if(previous != null){
+			for(int i = 0; i < previous.size(); i++){
+				double[] pose = new double[T];
+				previous.getPose(i, pose);
+				world.put(previous.getId(i), pose);
+			}
+		}
+		if(!world.containsKey(root)){
+			double[] pose = new double[T];
+			PoseMath.identity(pose);
+			world.put(root, pose);
+		}
+
+		double[] relative = new double[T];
+		ArrayDeque<Integer> queue = new ArrayDeque<>(world.keySet());
+		while(!queue.isEmpty()){
+			int id = queue.poll();
+			List<Edge> adjacent = adjacency.get(id);
+			if(adjacent == null)
+				continue;
+
+			for(Edge edge : adjacent){
+				int other = edge.from == id ? edge.to : edge.from;
+				if(world.containsKey(other))
+					continue;
+
+				relativeTransform(edge, averages.get(edge), id, relative);
+				double[] pose = new double[T];
+				PoseMath.compose(world.get(id), relative, pose);
+				world.put(other, pose);
+				queue.add(other);
+			}
+		}
+
+		// Relaxation: each pose becomes the weighted average of the poses
+		// predicted by its neighbours, the root stays fixed
+		double[] predicted = new double[T];
+		double[] q = new double[4];
+		double[] qSum = new double[4];
+		double[] tSum = new double[3];
+
+		for(int iteration = 0; iteration < ITERATIONS; iteration++){
+			for(Map.Entry<Integer, double[]> entry : world.entrySet()){
+				int id = entry.getKey();
+				List<Edge> adjacent = adjacency.get(id);
+				if(id == root || adjacent == null)
+					continue;
+
+				double[] pose = entry.getValue();
+				int weight = 0;
+				for(int k = 0; k < 4; k++)
+					qSum[k] = 0;
+				for(int k = 0; k < 3; k++)
+					tSum[k] = 0;
+
+				for(Edge edge : adjacent){
+					int other = edge.from == id ? edge.to : edge.from;
+					double[] otherPose = world.get(other);
+					if(otherPose == null)
+						continue;
+
+					relativeTransform(edge, averages.get(edge), other, relative);
+					PoseMath.compose(otherPose, relative, predicted);
+					PoseMath.matrixToQuaternion(predicted, 0, q, 0);
+
+					double sign = weight > 0 && dot(qSum, q) < 0 ? -1 : 1;
+					for(int k = 0; k < 4; k++)
+						qSum[k] += sign*edge.count*q[k];
+					for(int k = 0; k < 3; k++)
+						tSum[k] += edge.count*predicted[9 + k];
+					weight += edge.count;
+				}
+
+				if(weight == 0)
+					continue;
+
+				PoseMath.quaternionToMatrix(qSum, 0, pose, 0);
+				for(int k = 0; k < 3; k++)
+					pose[9 + k] = tSum[k]/weight;
+			}
+		}
+
+		int[] ids = new int[world.size()];
+		double[] poses = new double[world.size()*T];
+
+		// Root first so it stays the world origin after a reload
+		ids[0] = root;
+		System.arraycopy(world.get(root), 0, poses, 0, T);
+
+		int index = 1;
+		for(Map.Entry<Integer, double[]> entry : world.entrySet()){
+			if(entry.getKey() == root)
+				continue;
+			ids[index] = entry.getKey();
+			System.arraycopy(entry.getValue(), 0, poses, index*T, T);
+			index++;
+		}
+
+		return new MarkerMap(markerLength, ids, poses);
+	}
+
+	/**
+	 * Transform mapping the other endpoint's coordinates into the frame of marker id.
+	 */
+	private static void relativeTransform(Edge edge, double[] average, int id, double[] out){
+		if(edge.from == id)
+			System.arraycopy(average, 0, out, 0, T);
+		else
+			PoseMath.invert(average, out);
+	}
+
+	private static void addAdjacent(Map<Integer, List<Edge>> adjacency, int id, Edge edge){
+		List<Edge> list = adjacency.get(id);
+		if(list == null){
+			list = new ArrayList<>();
+			adjacency.put(id, list);
+		}
+		list.add(edge);
+	}
+
+	private static double dot(double[] a, double[] b){
+		return a[0]*b[0] + a[1]*b[1] + a[2]*b[2] + a[3]*b[3];
+	}
+
+}
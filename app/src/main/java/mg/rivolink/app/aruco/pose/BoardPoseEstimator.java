@@ -0,0 +1,111 @@
+package mg.rivolink.app.aruco.pose;
+
+import java.util.List;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.objdetect.Board;
+
+/**
+ * Single pose for a rigid set of markers (Board, GridBoard or a custom
+ * layout) from whichever member markers are visible, solved with
+ * solvePnPRansac over all their corners.
+ */
+public class BoardPoseEstimator {
+
+	public static final int DEFAULT_ITERATIONS = 100;
+	public static final float DEFAULT_REPROJECTION_ERROR = 3.0f;
+	public static final double DEFAULT_CONFIDENCE = 0.99;
+
+	private final Board board;
+
+	private int iterations = DEFAULT_ITERATIONS;
+	private float reprojectionError = DEFAULT_REPROJECTION_ERROR;
+	private double confidence = DEFAULT_CONFIDENCE;
+
+	private final Mat matchedObjectPoints = new Mat();
+	private final Mat matchedImagePoints = new Mat();
+	private final MatOfPoint3f objectPoints = new MatOfPoint3f();
+	private final MatOfPoint2f imagePoints = new MatOfPoint2f();
+	private final Mat inliers = new Mat();
+
+	private boolean hasPose = false;
+	private int pointCount = 0;
+	private int inlierCount = 0;
+
+	public BoardPoseEstimator(Board board){
+		this.board = board;
+	}
+
+	public Board getBoard(){
+		return board;
+	}
+
+	public void setRansacParameters(int iterations, float reprojectionError, double confidence){
+		this.iterations = iterations;
+		this.reprojectionError = reprojectionError;
+		this.confidence = confidence;
+	}
+
+	/**
+	 * Solves the board pose from detected markers; markers that do not belong
+	 * to the board are ignored. When the previous call succeeded, rvec and
+	 * tvec are used as the initial guess.
+	 */
+	public boolean estimate(List<Mat> corners, Mat ids, Mat cameraMatrix, MatOfDouble distCoeffs, Mat rvec, Mat tvec){
+		pointCount = 0;
+		inlierCount = 0;
+
+		if(corners.isEmpty()){
+			hasPose = false;
+			return false;
+		}
+
+		board.matchImagePoints(corners, ids, matchedObjectPoints, matchedImagePoints);
+
+		pointCount = matchedObjectPoints.empty() ? 0 : (int)matchedObjectPoints.total();
+		if(pointCount < 4){
+			hasPose = false;
+			return false;
+		}
+
+		matchedObjectPoints.copyTo(objectPoints);
+		matchedImagePoints.copyTo(imagePoints);
+
+		hasPose = Calib3d.solvePnPRansac(objectPoints, imagePoints, cameraMatrix, distCoeffs, rvec, tvec,
+			hasPose, iterations, reprojectionError, confidence, inliers, Calib3d.SOLVEPNP_ITERATIVE);
+
+		inlierCount = hasPose ? (int)inliers.total() : 0;
+		return hasPose;
+	}
+
+	/**
+	 * Number of marker corners matched to the board in the last call.
+	 */
+	public int getPointCount(){
+		return pointCount;
+	}
+
+	public int getInlierCount(){
+		return inlierCount;
+	}
+
+	/**
+	 * Indices into the matched points of the last solve, one CV_32S per inlier.
+	 */
+	public Mat getInliers(){
+		return inliers;
+	}
+
+	public void release(){
+		matchedObjectPoints.release();
+		matchedImagePoints.release();
+		objectPoints.release();
+		imagePoints.release();
+		inliers.release();
+	}
+
+}
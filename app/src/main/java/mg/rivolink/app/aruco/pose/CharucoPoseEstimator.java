@@ -0,0 +1,119 @@
+package mg.rivolink.app.aruco.pose;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.objdetect.CharucoBoard;
+import org.opencv.objdetect.CharucoDetector;
+import org.opencv.objdetect.CharucoParameters;
+import org.opencv.objdetect.DetectorParameters;
+
+/**
+ * Board-level pose from a ChArUco board: one solvePnP over every
+ * interpolated chessboard corner instead of one solve per marker.
+ */
+public class CharucoPoseEstimator {
+
+	private static final int MIN_CORNERS = 4;
+
+	private final CharucoBoard board;
+	private final CharucoDetector detector;
+
+	// x, y, z of every chessboard corner, indexed by charuco id
+	private final float[] chessboardCorners;
+
+	private final Mat charucoCorners = new Mat();
+	private final Mat charucoIds = new Mat();
+	private final List<Mat> markerCorners = new ArrayList<>();
+	private final Mat markerIds = new Mat();
+
+	private final MatOfPoint3f objectPoints = new MatOfPoint3f();
+	private final MatOfPoint2f imagePoints = new MatOfPoint2f();
+
+	private int[] idBuffer = new int[0];
+	private float[] objectBuffer = new float[0];
+	private int cornerCount = 0;
+
+	public CharucoPoseEstimator(CharucoBoard board, DetectorParameters parameters){
+		this.board = board;
+		this.detector = new CharucoDetector(board, new CharucoParameters(), parameters);
+
+		MatOfPoint3f corners = board.getChessboardCorners();
+		chessboardCorners = new float[(int)corners.total()*3];
+		corners.get(0, 0, chessboardCorners);
+		corners.release();
+	}
+
+	public CharucoBoard getBoard(){
+		return board;
+	}
+
+	/**
+	 * Detects the board in the gray frame and solves its pose.
+	 * Returns false when too few or only collinear corners were found.
+	 */
+	public boolean estimate(Mat gray, Mat cameraMatrix, MatOfDouble distCoeffs, Mat rvec, Mat tvec){
+		for(Mat mat : markerCorners)
+			mat.release();
+		markerCorners.clear();
+
+		detector.detectBoard(gray, charucoCorners, charucoIds, markerCorners, markerIds);
+
+		cornerCount = charucoIds.empty() ? 0 : (int)charucoIds.total();
+		if(cornerCount < MIN_CORNERS || board.checkCharucoCornersCollinear(charucoIds))
+			return false;
+
+		if(idBuffer.length < cornerCount){
+			idBuffer = new int[cornerCount];
+			objectBuffer = new float[cornerCount*3];
+		}
+		charucoIds.get(0, 0, idBuffer);
+
+		for(int i = 0; i < cornerCount; i++)
+			System.arraycopy(chessboardCorners, idBuffer[i]*3, objectBuffer, i*3, 3);
+
+		objectPoints.alloc(cornerCount);
+		objectPoints.put(0, 0, objectBuffer);
+		charucoCorners.copyTo(imagePoints);
+
+		return Calib3d.solvePnP(objectPoints, imagePoints, cameraMatrix, distCoeffs, rvec, tvec);
+	}
+
+	public int getCornerCount(){
+		return cornerCount;
+	}
+
+	public Mat getCharucoCorners(){
+		return charucoCorners;
+	}
+
+	public Mat getCharucoIds(){
+		return charucoIds;
+	}
+
+	public List<Mat> getMarkerCorners(){
+		return markerCorners;
+	}
+
+	public Mat getMarkerIds(){
+		return markerIds;
+	}
+
+	public void release(){
+		for(Mat mat : markerCorners)
+			mat.release();
+		markerCorners.clear();
+
+		charucoCorners.release();
+		charucoIds.release();
+		markerIds.release();
+		objectPoints.release();
+		imagePoints.release();
+	}
+
+}
@@ -0,0 +1,284 @@
+package mg.rivolink.app.aruco.pose;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.MatScope;
+import org.opencv.core.Point3;
+
+/**
+ * Square marker pose with planar ambiguity resolution.
+ *
+ * solvePnPGeneric with SOLVEPNP_IPPE_SQUARE returns both planar solutions
+ * sorted by reprojection error. When the two errors are close, the solution
+ * whose rotation is nearest to the marker's previous pose is kept instead of
+ * flipping. The error ratio of the last solve is published as ambiguity.
+ *
+ * Poses use the marker frame of MainActivity (corners at (-h,-h), (h,-h),
+ * (h,h), (-h,h)), IPPE_SQUARE's own point order is converted internally.
+ */
+public class MarkerPoseEstimator {
+
+	public static final double DEFAULT_AMBIGUITY_THRESHOLD = 0.6;
+	public static final int DEFAULT_HISTORY_FRAMES = 30;
+
+	private static class History {
+		final double[] quaternion = new double[4];
+		long frame;
+	}
+
+	private final MarkerSizeRegistry sizes;
+	private MatOfPoint3f[] objectPoints = new MatOfPoint3f[0];
+	private SquarePoseSolver[] solvers = new SquarePoseSolver[0];
+
+	private double ambiguityThreshold = DEFAULT_AMBIGUITY_THRESHOLD;
+	private int historyFrames = DEFAULT_HISTORY_FRAMES;
+
+	private final Map<Integer, History> history = new HashMap<>();
+	private final Map<Integer, Double> ambiguities = new HashMap<>();
+	private long frame = 0;
+
+	private final List<Mat> rvecs = new ArrayList<>();
+	private final List<Mat> tvecs = new ArrayList<>();
+	private final Mat errors = new Mat(2, 1, CvType.CV_64FC1);
+	private final Mat guessRvec = new Mat();
+	private final Mat guessTvec = new Mat();
+	private final MatOfDouble noDistortion = new MatOfDouble(0, 0, 0, 0, 0);
+
+	private final double[] errorBuffer = new double[2];
+	private final double[] rvecBuffer = new double[3];
+	private final double[] tvecBuffer = new double[3];
+	private final double[] rotation = new double[9];
+	private final double[][] candidates = new double[2][4];
+	private final double[][] candidateRvecs = new double[2][3];
+	private final double[][] candidateTvecs = new double[2][3];
+	private final double[] solution = new double[SquarePoseSolver.OUTPUT_SIZE];
+	private final double[] alternative = new double[SquarePoseSolver.OUTPUT_SIZE];
+
+	private double lastAmbiguity = 0;
+
+	public MarkerPoseEstimator(float markerLength){
+		this(new MarkerSizeRegistry(markerLength));
+	}
+
+	/**
+	 * Per-marker side lengths come from the registry, which should be fully
+	 * configured before the first estimate.
+	 */
+	public MarkerPoseEstimator(MarkerSizeRegistry sizes){
+		this.sizes = sizes;
+		ensureSizes();
+	}
+
+	public MarkerSizeRegistry getSizes(){
+		return sizes;
+	}
+
+	/**
+	 * Error ratio (best / second best) above which the two solutions are
+	 * considered ambiguous and history decides.
+	 */
+	public void setAmbiguityThreshold(double ambiguityThreshold){
+		this.ambiguityThreshold = ambiguityThreshold;
+	}
+
+	public void setHistoryFrames(int historyFrames){
+		this.historyFrames = historyFrames;
+	}
+
+	/**
+	 * Marks the start of a new frame; history older than the configured
+	 * number of frames is ignored.
+	 */
+	public void nextFrame(){
+		frame++;
+	}
+
+	/**
+	 * Ratio of the best to the second best reprojection error of the last
+	 * solve: close to 0 is unambiguous, close to 1 is fully ambiguous.
+	 */
+	public double getLastAmbiguity(){
+		return lastAmbiguity;
+	}
+
+	public double getAmbiguity(int id){
+		Double ambiguity = ambiguities.get(id);
+		return ambiguity != null ? ambiguity : 0;
+	}
+
+	public boolean estimate(int id, Mat markerCorners, Mat cameraMatrix, MatOfDouble distCoeffs, Mat rvec, Mat tvec){
+		int sizeIndex = sizes.indexOf(id);
+		if(sizeIndex >= objectPoints.length)
+			ensureSizes();
+
+		// The candidate Mats solvePnPGeneric allocates are released with the scope
+		MatScope scope = MatScope.open();
+		try {
+			int solutions = Calib3d.solvePnPGeneric(objectPoints[sizeIndex], markerCorners, cameraMatrix,
+				distCoeffs != null ? distCoeffs : noDistortion, rvecs, tvecs, false,
+				Calib3d.SOLVEPNP_IPPE_SQUARE, guessRvec, guessTvec, errors);
+
+			if(solutions <= 0)
+				return false;
+
+			solutions = Math.min(solutions, 2);
+			errors.get(0, 0, errorBuffer);
+
+			for(int i = 0; i < solutions; i++){
+				rvecs.get(i).get(0, 0, candidateRvecs[i]);
+				tvecs.get(i).get(0, 0, candidateTvecs[i]);
+
+				toMarkerFrame(candidateRvecs[i]);
+				PoseMath.rodriguesToQuaternion(candidateRvecs[i], 0, candidates[i], 0);
+			}
+
+			lastAmbiguity = solutions > 1 && errorBuffer[1] > 0 ? errorBuffer[0]/errorBuffer[1] : 0;
+			int chosen = select(id, solutions > 1 ? candidates[1] : null);
+
+			System.arraycopy(candidateRvecs[chosen], 0, rvecBuffer, 0, 3);
+			System.arraycopy(candidateTvecs[chosen], 0, tvecBuffer, 0, 3);
+
+			rvec.create(3, 1, CvType.CV_64FC1);
+			rvec.put(0, 0, rvecBuffer);
+			tvec.create(3, 1, CvType.CV_64FC1);
+			tvec.put(0, 0, tvecBuffer);
+
+			return true;
+		}
+		finally {
+			scope.close();
+			rvecs.clear();
+			tvecs.clear();
+		}
+	}
+
+	/**
+	 * Pure Java variant for many markers at once, see SquarePoseSolver.
+	 * Corners are undistorted pixels, eight floats per marker; three
+	 * doubles per marker are written to rvecs and tvecs. Returns how many
+	 * markers were solved, failed markers get a zero pose.
+	 */
+	public int estimateAll(int[] ids, float[] corners, int count, double fx, double fy, double cx, double cy, double[] rvecs, double[] tvecs){
+		if(sizes.getSizeCount() > solvers.length)
+			ensureSizes();
+		for(SquarePoseSolver solver : solvers)
+			solver.setIntrinsics(fx, fy, cx, cy);
+
+		int solved = 0;
+		for(int i = 0; i < count; i++){
+			SquarePoseSolver solver = solvers[sizes.indexOf(ids[i])];
+			if(!solver.solve(corners, i*SquarePoseSolver.CORNERS_SIZE, solution, 0, alternative, 0)){
+				for(int k = 0; k < 3; k++){
+					rvecs[i*3 + k] = 0;
+					tvecs[i*3 + k] = 0;
+				}
+				continue;
+			}
+
+			System.arraycopy(solution, 6, candidates[0], 0, 4);
+			System.arraycopy(alternative, 6, candidates[1], 0, 4);
+
+			lastAmbiguity = solver.getSecondError() > 0 ? solver.getBestError()/solver.getSecondError() : 0;
+			double[] chosen = select(ids[i], candidates[1]) == 0 ? solution : alternative;
+
+			System.arraycopy(chosen, 0, rvecs, i*3, 3);
+			System.arraycopy(chosen, 3, tvecs, i*3, 3);
+			solved++;
+		}
+		return solved;
+	}
+
+	public void clearHistory(){
+		history.clear();
+		ambiguities.clear();
+	}
+
+	public void release(){
+		for(MatOfPoint3f points : objectPoints)
+			points.release();
+		errors.release();
+		guessRvec.release();
+		guessTvec.release();
+		noDistortion.release();
+	}
+
+	/**
+	 * Builds object points and a Java solver for every registered size.
+	 * IPPE_SQUARE expects its corners as (-h,h), (h,h), (h,-h), (-h,-h).
+	 */
+	private void ensureSizes(){
+		int count = sizes.getSizeCount();
+		int known = objectPoints.length;
+		if(count <= known)
+			return;
+
+		objectPoints = Arrays.copyOf(objectPoints, count);
+		solvers = Arrays.copyOf(solvers, count);
+
+		for(int i = known; i < count; i++){
+			float length = sizes.getSizeAt(i);
+			double h = length/2.0;
+			objectPoints[i] = new MatOfPoint3f(
+				new Point3(-h,  h, 0),
+				new Point3( h,  h, 0),
+				new Point3( h, -h, 0),
+				new Point3(-h, -h, 0)
+			);
+			solvers[i] = new SquarePoseSolver(length);
+		}
+	}
+
+	/**
+	 * IPPE_SQUARE frame to marker frame: a 180 degree turn about x, i.e. the
+	 * rotation matrix gets its y and z columns negated.
+	 */
+	private void toMarkerFrame(double[] rvecIppe){
+		PoseMath.rodriguesToMatrix(rvecIppe, 0, rotation, 0);
+		for(int row = 0; row < 3; row++){
+			rotation[row*3 + 1] = -rotation[row*3 + 1];
+			rotation[row*3 + 2] = -rotation[row*3 + 2];
+		}
+		PoseMath.matrixToRodrigues(rotation, 0, rvecIppe, 0);
+	}
+
+	/**
+	 * Picks candidates[0] unless the solve is ambiguous and the second
+	 * candidate is closer to the marker's previous rotation, then records
+	 * the choice. lastAmbiguity must be set.
+	 */
+	private int select(int id, double[] second){
+		int chosen = 0;
+
+		History previous = history.get(id);
+		if(second != null && lastAmbiguity > ambiguityThreshold
+				&& previous != null && frame - previous.frame <= historyFrames){
+			double d0 = Math.abs(dot(previous.quaternion, candidates[0]));
+			double d1 = Math.abs(dot(previous.quaternion, second));
+			chosen = d1 > d0 ? 1 : 0;
+		}
+
+		if(previous == null){
+			previous = new History();
+			history.put(id, previous);
+		}
+		System.arraycopy(chosen == 0 ? candidates[0] : second, 0, previous.quaternion, 0, 4);
+		previous.frame = frame;
+		ambiguities.put(id, lastAmbiguity);
+
+		return chosen;
+	}
+
+	private static double dot(double[] a, double[] b){
+		return a[0]*b[0] + a[1]*b[1] + a[2]*b[2] + a[3]*b[3];
+	}
+
+}
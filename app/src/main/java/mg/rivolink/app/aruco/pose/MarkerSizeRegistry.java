@@ -0,0 +1,139 @@
+package mg.rivolink.app.aruco.pose;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+/**
+ * Physical side length per marker ID.
+ *
+ * ID ranges map to a small set of distinct sizes, each with an index
+ * (0 is the default size). ID to index is a plain array lookup, and the pose
+ * stage keeps its object points per size index, so nothing is allocated or
+ * rebuilt per marker.
+ *
+ * Config format, one entry per line, lengths in metres:
+ *
+ *   # comment
+ *   default 0.04
+ *   0-49 0.04
+ *   50 0.1
+ */
+public class MarkerSizeRegistry {
+
+	public static final int MAX_ID = 0xFFFF;
+
+	private float[] sizes = new float[1];
+	private int sizeCount = 1;
+
+	private short[] sizeOfId = new short[0];
+
+	public MarkerSizeRegistry(float defaultSize){
+		setDefaultSize(defaultSize);
+	}
+
+	public void setDefaultSize(float size){
+		sizes[0] = size;
+	}
+
+	/**
+	 * Assigns size to the IDs from fromId to toId, both inclusive.
+	 */
+	public void addRange(int fromId, int toId, float size){
+		if(fromId < 0 || toId < fromId || toId > MAX_ID)
+			throw new IllegalArgumentException("Invalid marker id range: "+fromId+"-"+toId);
+		if(!(size > 0))
+			throw new IllegalArgumentException("Invalid marker size: "+size);
+
+		if(sizeOfId.length <= toId)
+			sizeOfId = Arrays.copyOf(sizeOfId, toId + 1);
+
+		short index = (short)indexOfSize(size);
+		for(int id = fromId; id <= toId; id++)
+			sizeOfId[id] = index;
+	}
+
+	/**
+	 * Size index of a marker, 0 when no range covers it.
+	 */
+	public int indexOf(int id){
+		return id >= 0 && id < sizeOfId.length ? sizeOfId[id] : 0;
+	}
+
+	public float getSize(int id){
+		return sizes[indexOf(id)];
+	}
+
+	public float getDefaultSize(){
+		return sizes[0];
+	}
+
+	public int getSizeCount(){
+		return sizeCount;
+	}
+
+	public float getSizeAt(int index){
+		return sizes[index];
+	}
+
+	public static MarkerSizeRegistry load(InputStream in, float defaultSize) throws IOException {
+		MarkerSizeRegistry registry = new MarkerSizeRegistry(defaultSize);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+
+		String line;
+		int number = 0;
+		while((line = reader.readLine()) != null){
+			number++;
+
+			int comment = line.indexOf('#');
+			if(comment >= 0)
+				line = line.substring(0, comment);
+			line = line.trim();
+			if(line.isEmpty())
+				continue;
+
+			String[] fields = line.split("\\s+");
+			if(fields.length != 2)
+				throw new IOException("Line "+number+": expected '<ids> <size>'");
+
+			try {
+				float size = Float.parseFloat(fields[1]);
+
+				if(fields[0].equals("default")){
+					if(!(size > 0))
+						throw new IllegalArgumentException("Invalid marker size: "+size);
+					registry.setDefaultSize(size);
+					continue;
+				}
+
+				int dash = fields[0].indexOf('-', 1);
+				int from = Integer.parseInt(dash < 0 ? fields[0] : fields[0].substring(0, dash));
+				int to = dash < 0 ? from : Integer.parseInt(fields[0].substring(dash + 1));
+				registry.addRange(from, to, size);
+			}
+			catch(IllegalArgumentException e){
+				throw new IOException("Line "+number+": "+e.getMessage());
+			}
+		}
+
+		return registry;
+	}
+
+	private int indexOfSize(float size){
+		// Index 0 stays reserved for the default so changing it later does
+		// not resize explicitly configured ranges
+		for(int i = 1; i < sizeCount; i++){
+			if(sizes[i] == size)
+				return i;
+		}
+
+		if(sizeCount == sizes.length)
+			sizes = Arrays.copyOf(sizes, sizeCount*2);
+
+		sizes[sizeCount] = size;
+		return sizeCount++;
+	}
+
+}
@@ -0,0 +1,265 @@
+package mg.rivolink.app.aruco.pose;
+
+/**
+ * Allocation-free rigid transform math on primitive arrays.
+ *
+ * A transform is a double[12]: row-major 3x3 rotation in [0..8] followed by
+ * the translation in [9..11]. Quaternions are stored w, x, y, z.
+ * Unless stated otherwise, outputs may alias inputs.
+ */
+public final class PoseMath {
+
+	public static final int TRANSFORM_SIZE = 12;
+
+	private static final double EPSILON = 1e-12;
+
+	private PoseMath(){
+	}
+
+	public static void identity(double[] out){
+		out[0] = 1; out[1] = 0; out[2] = 0;
+		out[3] = 0; out[4] = 1; out[5] = 0;
+		out[6] = 0; out[7] = 0; out[8] = 1;
+		out[9] = 0; out[10] = 0; out[11] = 0;
+	}
+
+	/**
+	 * Rotation vector (axis * angle) to row-major 3x3 matrix.
+	 */
+	public static void rodriguesToMatrix(double[] rvec, int rOff, double[] m, int mOff){
+		double x = rvec[rOff], y = rvec[rOff + 1], z = rvec[rOff + 2];
+		double theta = Math.sqrt(x*x + y*y + z*z);
+
+		if(theta < EPSILON){
+			m[mOff] = 1;     m[mOff + 1] = -z;  m[mOff + 2] = y;
+			m[mOff + 3] = z; m[mOff + 4] = 1;   m[mOff + 5] = -x;
+			m[mOff + 6] = -y; m[mOff + 7] = x;  m[mOff + 8] = 1;
+			return;
+		}
+
+		x /= theta; y /= theta; z /= theta;
+		double c = Math.cos(theta), s = Math.sin(theta), t = 1 - c;
+
+		m[mOff]     = t*x*x + c;   m[mOff + 1] = t*x*y - s*z; m[mOff + 2] = t*x*z + s*y;
+		m[mOff + 3] = t*x*y + s*z; m[mOff + 4] = t*y*y + c;   m[mOff + 5] = t*y*z - s*x;
+		m[mOff + 6] = t*x*z - s*y; m[mOff + 7] = t*y*z + s*x; m[mOff + 8] = t*z*z + c;
+	}
+
+	public static void matrixToRodrigues(double[] m, int mOff, double[] rvec, int rOff){
+		double vx = m[mOff + 7] - m[mOff + 5];
+		double vy = m[mOff + 2] - m[mOff + 6];
+		double vz = m[mOff + 3] - m[mOff + 1];
+
+		double sin2 = Math.sqrt(vx*vx + vy*vy + vz*vz);
+		double cos = (m[mOff] + m[mOff + 4] + m[mOff + 8] - 1)/2;
+		double theta = Math.atan2(sin2/2, cos);
+
+		if(sin2 < EPSILON && cos > 0){
+			rvec[rOff] = vx/2; rvec[rOff + 1] = vy/2; rvec[rOff + 2] = vz/2;
+			return;
+		}
+
+		if(cos > -0.9){
+			double f = theta/sin2;
+			rvec[rOff] = vx*f; rvec[rOff + 1] = vy*f; rvec[rOff + 2] = vz*f;
+			return;
+		}
+
+		// Close to pi the antisymmetric part vanishes, recover the axis from
+		// the symmetric part using its largest diagonal entry
+		double d = 1 - cos;
+		double ax, ay, az;
+		if(m[mOff] >= m[mOff + 4] && m[mOff] >= m[mOff + 8]){
+			ax = Math.sqrt(Math.max(0, (m[mOff] - cos)/d));
+			ay = (m[mOff + 1] + m[mOff + 3])/(2*d*ax);
+			az = (m[mOff + 2] + m[mOff + 6])/(2*d*ax);
+		}
+		else if(m[mOff + 4] >= m[mOff + 8]){
+			ay = Math.sqrt(Math.max(0, (m[mOff + 4] - cos)/d));
+			ax = (m[mOff + 1] + m[mOff + 3])/(2*d*ay);
+			az = (m[mOff + 5] + m[mOff + 7])/(2*d*ay);
+		}
+		else {
+			az = Math.sqrt(Math.max(0, (m[mOff + 8] - cos)/d));
+			ax = (m[mOff + 2] + m[mOff + 6])/(2*d*az);
+			ay = (m[mOff + 5] + m[mOff + 7])/(2*d*az);
+		}
+
+		if(ax*vx + ay*vy + az*vz < 0){
+			ax = -ax; ay = -ay; az = -az;
+		}
+
+		double n = Math.sqrt(ax*ax + ay*ay + az*az);
+		rvec[rOff] = ax/n*theta; rvec[rOff + 1] = ay/n*theta; rvec[rOff + 2] = az/n*theta;
+	}
+
+	/**
+	 * Row-major 3x3 matrix to unit quaternion (w, x, y, z), w >= 0.
+	 */
+	public static void matrixToQuaternion(double[] m, int o, double[] q, int qOff){
+		double trace = m[o] + m[o + 4] + m[o + 8];
+		double w, x, y, z;
+
+		if(trace > 0){
+			double s = Math.sqrt(trace + 1.0)*2;
+			w = 0.25*s;
+			x = (m[o + 7] - m[o + 5])/s;
+			y = (m[o + 2] - m[o + 6])/s;
+			z = (m[o + 3] - m[o + 1])/s;
+		}
+		else if(m[o] > m[o + 4] && m[o] > m[o + 8]){
+			double s = Math.sqrt(1.0 + m[o] - m[o + 4] - m[o + 8])*2;
+			w = (m[o + 7] - m[o + 5])/s;
+			x = 0.25*s;
+			y = (m[o + 1] + m[o + 3])/s;
+			z = (m[o + 2] + m[o + 6])/s;
+		}
+		else if(m[o + 4] > m[o + 8]){
+			double s = Math.sqrt(1.0 + m[o + 4] - m[o] - m[o + 8])*2;
+			w = (m[o + 2] - m[o + 6])/s;
+			x = (m[o + 1] + m[o + 3])/s;
+			y = 0.25*s;
+			z = (m[o + 5] + m[o + 7])/s;
+		}
+		else {
+			double s = Math.sqrt(1.0 + m[o + 8] - m[o] - m[o + 4])*2;
+			w = (m[o + 3] - m[o + 1])/s;
+			x = (m[o + 2] + m[o + 6])/s;
+			y = (m[o + 5] + m[o + 7])/s;
+			z = 0.25*s;
+		}
+
+		if(w < 0){
+			w = -w; x = -x; y = -y; z = -z;
+		}
+
+		q[qOff] = w; q[qOff + 1] = x; q[qOff + 2] = y; q[qOff + 3] = z;
+	}
+
+	public static void quaternionToMatrix(double[] q, int qOff, double[] m, int mOff){
+		double w = q[qOff], x = q[qOff + 1], y = q[qOff + 2], z = q[qOff + 3];
+		double n = Math.sqrt(w*w + x*x + y*y + z*z);
+		if(n < EPSILON){
+			w = 1; x = 0; y = 0; z = 0;
+		}
+		else {
+			w /= n; x /= n; y /= n; z /= n;
+		}
+
+		m[mOff]     = 1 - 2*(y*y + z*z); m[mOff + 1] = 2*(x*y - w*z);     m[mOff + 2] = 2*(x*z + w*y);
+		m[mOff + 3] = 2*(x*y + w*z);     m[mOff + 4] = 1 - 2*(x*x + z*z); m[mOff + 5] = 2*(y*z - w*x);
+		m[mOff + 6] = 2*(x*z - w*y);     m[mOff + 7] = 2*(y*z + w*x);     m[mOff + 8] = 1 - 2*(x*x + y*y);
+	}
+
+	public static void rodriguesToQuaternion(double[] rvec, int rOff, double[] q, int qOff){
+		double x = rvec[rOff], y = rvec[rOff + 1], z = rvec[rOff + 2];
+		double theta = Math.sqrt(x*x + y*y + z*z);
+
+		if(theta < EPSILON){
+			q[qOff] = 1; q[qOff + 1] = x/2; q[qOff + 2] = y/2; q[qOff + 3] = z/2;
+			return;
+		}
+
+		double s = Math.sin(theta/2)/theta;
+		q[qOff] = Math.cos(theta/2);
+		q[qOff + 1] = x*s;
+		q[qOff + 2] = y*s;
+		q[qOff + 3] = z*s;
+	}
+
+	public static void quaternionToRodrigues(double[] q, int qOff, double[] rvec, int rOff){
+		quaternionToRodrigues(q[qOff], q[qOff + 1], q[qOff + 2], q[qOff + 3], rvec, rOff);
+	}
+
+	/**
+	 * Transform from an OpenCV rvec/tvec pair (object to camera).
+	 */
+	public static void fromRvecTvec(double[] rvec, int rOff, double[] tvec, int tOff, double[] out){
+		rodriguesToMatrix(rvec, rOff, out, 0);
+		out[9] = tvec[tOff];
+		out[10] = tvec[tOff + 1];
+		out[11] = tvec[tOff + 2];
+	}
+
+	public static void toRvecTvec(double[] transform, double[] rvec, int rOff, double[] tvec, int tOff){
+		matrixToRodrigues(transform, 0, rvec, rOff);
+		tvec[tOff] = transform[9];
+		tvec[tOff + 1] = transform[10];
+		tvec[tOff + 2] = transform[11];
+	}
+
+	/**
+	 * out = a * b, i.e. apply b first, then a.
+	 */
+	public static void compose(double[] a, double[] b, double[] out){
+		double r0 = a[0]*b[0] + a[1]*b[3] + a[2]*b[6];
+		double r1 = a[0]*b[1] + a[1]*b[4] + a[2]*b[7];
+		double r2 = a[0]*b[2] + a[1]*b[5] + a[2]*b[8];
+		double r3 = a[3]*b[0] + a[4]*b[3] + a[5]*b[6];
+		double r4 = a[3]*b[1] + a[4]*b[4] + a[5]*b[7];
+		double r5 = a[3]*b[2] + a[4]*b[5] + a[5]*b[8];
+		double r6 = a[6]*b[0] + a[7]*b[3] + a[8]*b[6];
+		double r7 = a[6]*b[1] + a[7]*b[4] + a[8]*b[7];
+		double r8 = a[6]*b[2] + a[7]*b[5] + a[8]*b[8];
+
+		double t0 = a[0]*b[9] + a[1]*b[10] + a[2]*b[11] + a[9];
+		double t1 = a[3]*b[9] + a[4]*b[10] + a[5]*b[11] + a[10];
+		double t2 = a[6]*b[9] + a[7]*b[10] + a[8]*b[11] + a[11];
+
+		out[0] = r0; out[1] = r1; out[2] = r2;
+		out[3] = r3; out[4] = r4; out[5] = r5;
+		out[6] = r6; out[7] = r7; out[8] = r8;
+		out[9] = t0; out[10] = t1; out[11] = t2;
+	}
+
+	public static void invert(double[] a, double[] out){
+		double r0 = a[0], r1 = a[3], r2 = a[6];
+		double r3 = a[1], r4 = a[4], r5 = a[7];
+		double r6 = a[2], r7 = a[5], r8 = a[8];
+		double tx = a[9], ty = a[10], tz = a[11];
+
+		out[0] = r0; out[1] = r1; out[2] = r2;
+		out[3] = r3; out[4] = r4; out[5] = r5;
+		out[6] = r6; out[7] = r7; out[8] = r8;
+		out[9]  = -(r0*tx + r1*ty + r2*tz);
+		out[10] = -(r3*tx + r4*ty + r5*tz);
+		out[11] = -(r6*tx + r7*ty + r8*tz);
+	}
+
+	/**
+	 * Applies the transform to (x, y, z), writing three values at out[off].
+	 */
+	public static void transformPoint(double[] t, double x, double y, double z, double[] out, int off){
+		out[off]     = t[0]*x + t[1]*y + t[2]*z + t[9];
+		out[off + 1] = t[3]*x + t[4]*y + t[5]*z + t[10];
+		out[off + 2] = t[6]*x + t[7]*y + t[8]*z + t[11];
+	}
+
+	/**
+	 * Re-expresses a transform given in the OpenCV camera frame (x right,
+	 * y down, z forward) in the OpenGL camera frame (x right, y up, z towards
+	 * the viewer), i.e. negates rows y and z.
+	 */
+	public static void cvToGl(double[] transform, double[] out){
+		out[0] = transform[0];   out[1] = transform[1];   out[2] = transform[2];
+		out[3] = -transform[3];  out[4] = -transform[4];  out[5] = -transform[5];
+		out[6] = -transform[6];  out[7] = -transform[7];  out[8] = -transform[8];
+		out[9] = transform[9];   out[10] = -transform[10]; out[11] = -transform[11];
+	}
+
+	private static void quaternionToRodrigues(double w, double x, double y, double z, double[] rvec, int rOff){
+		if(w < 0){
+			w = -w; x = -x; y = -y; z = -z;
+		}
+
+		double sin = Math.sqrt(x*x + y*y + z*z);
+		if(sin < EPSILON){
+			rvec[rOff] = 2*x; rvec[rOff + 1] = 2*y; rvec[rOff + 2] = 2*z;
+			return;
+		}
+
+		double f = 2*Math.atan2(sin, w)/sin;
+		rvec[rOff] = x*f; rvec[rOff + 1] = y*f; rvec[rOff + 2] = z*f;
+	}
+
+}
@@ -0,0 +1,209 @@
+package mg.rivolink.app.aruco.pose;
+
+/**
+ * Trust metrics for one square marker pose, computed in a single pass over
+ * its four corners without allocating.
+ *
+ * The covariance is the Gauss-Newton approximation sigma^2 * (J^T J)^-1 of
+ * the reprojection Jacobian at the solution. Its parameters are a small
+ * rotation about the camera axes (rx, ry, rz, radians) followed by the
+ * translation (tx, ty, tz, metres). With four corners only two degrees of
+ * freedom remain for the residual, so sigma never drops below
+ * MIN_PIXEL_SIGMA to keep near-perfect fits from looking infinitely certain.
+ */
+public class PoseQuality {
+
+	public static final double MIN_PIXEL_SIGMA = 0.5;
+
+	private double rmsError;
+	private double area;
+	private double viewingAngle;
+	private final double[] covariance = new double[36];
+	private final double[] row = new double[6];
+	private boolean valid;
+
+	/**
+	 * Evaluates the pose (rvec, tvec: marker to camera) of a marker of the
+	 * given side length against its undistorted pixel corners, eight floats
+	 * in the MainActivity marker corner order.
+	 */
+	public boolean compute(float[] corners, int offset, double[] rvec, int rOff, double[] tvec, int tOff,
+			float markerLength, double fx, double fy, double cx, double cy){
+		double rx = rvec[rOff], ry = rvec[rOff + 1], rz = rvec[rOff + 2];
+		double tx = tvec[tOff], ty = tvec[tOff + 1], tz = tvec[tOff + 2];
+
+		// Rotation matrix, inlined to stay allocation-free
+		double theta = Math.sqrt(rx*rx + ry*ry + rz*rz);
+		double c = Math.cos(theta), s = Math.sin(theta);
+		double kx = 0, ky = 0, kz = 0;
+		if(theta > 1e-12){
+			kx = rx/theta; ky = ry/theta; kz = rz/theta;
+		}
+		double t = 1 - c;
+		double r00 = t*kx*kx + c,    r01 = t*kx*ky - s*kz, r02 = t*kx*kz + s*ky;
+		double r10 = t*kx*ky + s*kz, r11 = t*ky*ky + c,    r12 = t*ky*kz - s*kx;
+		double r20 = t*kx*kz - s*ky, r21 = t*ky*kz + s*kx, r22 = t*kz*kz + c;
+
+		for(int i = 0; i < 36; i++)
+			covariance[i] = 0;
+
+		double h = markerLength/2.0;
+		double sse = 0;
+		area = 0;
+
+		for(int i = 0; i < 4; i++){
+			double ox = (i == 0 || i == 3) ? -h : h;
+			double oy = i < 2 ? -h : h;
+
+			// Marker point rotated into camera axes, then translated
+			double qx = r00*ox + r01*oy, qy = r10*ox + r11*oy, qz = r20*ox + r21*oy;
+			double px = qx + tx, py = qy + ty, pz = qz + tz;
+			if(pz <= 1e-9){
+				valid = false;
+				return false;
+			}
+
+			double u = fx*px/pz + cx;
+			double v = fy*py/pz + cy;
+			double du = u - corners[offset + 2*i];
+			double dv = v - corners[offset + 2*i + 1];
+			sse += du*du + dv*dv;
+
+			double x0 = corners[offset + 2*i], y0 = corners[offset + 2*i + 1];
+			int next = (i + 1) % 4;
+			area += x0*corners[offset + 2*next + 1] - corners[offset + 2*next]*y0;
+
+			// d(u,v)/dP, with dP/dw = -[q]x for a left rotation w and dP/dt = I
+			double iz = 1/pz;
+			double ux = fx*iz, uz = -fx*px*iz*iz;
+			double vy = fy*iz, vz = -fy*py*iz*iz;
+
+			accumulate(
+				uz*qy,
+				ux*qz - uz*qx,
+				-ux*qy,
+				ux, 0, uz);
+			accumulate(
+				-vy*qz + vz*qy,
+				-vz*qx,
+				vy*qx,
+				0, vy, vz);
+		}
+
+		area = Math.abs(area)/2;
+		rmsError = Math.sqrt(sse/4);
+
+		// Angle between the marker normal (third rotation column) and the
+		// line of sight to the marker centre
+		double distance = Math.sqrt(tx*tx + ty*ty + tz*tz);
+		double cos = distance > 0 ? Math.abs(r02*tx + r12*ty + r22*tz)/distance : 1;
+		viewingAngle = Math.acos(Math.min(1, cos));
+
+		double sigma2 = Math.max(sse/2, MIN_PIXEL_SIGMA*MIN_PIXEL_SIGMA);
+		valid = invert(covariance);
+		if(valid){
+			for(int i = 0; i < 36; i++)
+				covariance[i] *= sigma2;
+		}
+		return valid;
+	}
+
+	/**
+	 * Whether the last compute succeeded, i.e. the covariance is meaningful.
+	 */
+	public boolean isValid(){
+		return valid;
+	}
+
+	/**
+	 * RMS reprojection error in pixels.
+	 */
+	public double getRmsError(){
+		return rmsError;
+	}
+
+	/**
+	 * Marker area in the image in square pixels.
+	 */
+	public double getArea(){
+		return area;
+	}
+
+	/**
+	 * Angle in radians between the marker normal and the viewing ray,
+	 * 0 when seen head-on.
+	 */
+	public double getViewingAngle(){
+		return viewingAngle;
+	}
+
+	/**
+	 * Row-major 6x6 covariance of (rx, ry, rz, tx, ty, tz). Shared buffer.
+	 */
+	public double[] getCovariance(){
+		return covariance;
+	}
+
+	/**
+	 * Standard deviation of the position, sqrt of the translation trace.
+	 */
+	public double getPositionSigma(){
+		return Math.sqrt(covariance[21] + covariance[28] + covariance[35]);
+	}
+
+	public boolean isAcceptable(double maxRmsError, double minArea, double maxViewingAngle){
+		return valid && rmsError <= maxRmsError && area >= minArea && viewingAngle <= maxViewingAngle;
+	}
+
+	public void set(PoseQuality other){
+		rmsError = other.rmsError;
+		area = other.area;
+		viewingAngle = other.viewingAngle;
+		System.arraycopy(other.covariance, 0, covariance, 0, 36);
+		valid = other.valid;
+	}
+
+	/**
+	 * Adds the outer product of one Jacobian row to J^T J.
+	 */
+	private void accumulate(double j0, double j1, double j2, double j3, double j4, double j5){
+		row[0] = j0; row[1] = j1; row[2] = j2;
+		row[3] = j3; row[4] = j4; row[5] = j5;
+
+		for(int a = 0; a < 6; a++){
+			double ja = row[a];
+			if(ja == 0)
+				continue;
+			for(int b = 0; b < 6; b++)
+				covariance[a*6 + b] += ja*row[b];
+		}
+	}
+
+	/**
+	 * In-place Gauss-Jordan inverse of a symmetric positive definite 6x6.
+	 */
+	private static boolean invert(double[] m){
+		for(int k = 0; k < 6; k++){
+			double pivot = m[k*6 + k];
+			if(Math.abs(pivot) < 1e-18)
+				return false;
+
+			m[k*6 + k] = 1;
+			for(int j = 0; j < 6; j++)
+				m[k*6 + j] /= pivot;
+
+			for(int i = 0; i < 6; i++){
+				if(i == k)
+					continue;
+				double f = m[i*6 + k];
+				if(f == 0)
+					continue;
+				m[i*6 + k] = 0;
+				for(int j = 0; j < 6; j++)
+					m[i*6 + j] -= f*m[k*6 + j];
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,273 @@
+package mg.rivolink.app.aruco.pose;
+
+/**
+ * Pure Java IPPE pose for square markers, no JNI and no allocation per call.
+ *
+ * The homography from the marker square to the normalized image is built in
+ * closed form, its Jacobian at the marker centre gives the two candidate
+ * rotations (Collins and Bartoli, "Infinitesimal Plane-based Pose
+ * Estimation"), and each translation is the linear least squares solution
+ * for its rotation. Corners are undistorted pixel coordinates in ArUco order,
+ * matching the marker frame of MainActivity: (-h,-h), (h,-h), (h,h), (-h,h).
+ *
+ * Results are written as OUTPUT_SIZE doubles: rvec, tvec, quaternion (w, x,
+ * y, z). Instances keep scratch state and must not be shared across threads.
+ */
+public class SquarePoseSolver {
+
+	public static final int OUTPUT_SIZE = 10;
+	public static final int CORNERS_SIZE = 8;
+
+	private static final double EPSILON = 1e-12;
+
+	private final double halfLength;
+	private final double[] objectX;
+	private final double[] objectY;
+
+	private double fx, fy, cx, cy;
+
+	private final double[] u = new double[4];
+	private final double[] v = new double[4];
+	private final double[] rv = new double[9];
+	private final double[] r1 = new double[9];
+	private final double[] r2 = new double[9];
+	private final double[] t1 = new double[3];
+	private final double[] t2 = new double[3];
+
+	private double bestError;
+	private double secondError;
+
+	public SquarePoseSolver(float markerLength){
+		halfLength = markerLength/2.0;
+		objectX = new double[]{ -halfLength, halfLength, halfLength, -halfLength };
+		objectY = new double[]{ -halfLength, -halfLength, halfLength, halfLength };
+		setIntrinsics(1, 1, 0, 0);
+	}
+
+	public void setIntrinsics(double fx, double fy, double cx, double cy){
+		this.fx = fx;
+		this.fy = fy;
+		this.cx = cx;
+		this.cy = cy;
+	}
+
+	/**
+	 * Solves count markers laid out CORNERS_SIZE floats apart in corners,
+	 * writing OUTPUT_SIZE doubles per marker into out. Returns the number of
+	 * markers solved; a failed marker gets a zero quaternion.
+	 */
+	public int solveAll(float[] corners, int count, double[] out){
+		int solved = 0;
+		for(int i = 0; i < count; i++){
+			if(solve(corners, i*CORNERS_SIZE, out, i*OUTPUT_SIZE, null, 0))
+				solved++;
+			else
+				for(int k = 0; k < OUTPUT_SIZE; k++)
+					out[i*OUTPUT_SIZE + k] = 0;
+		}
+		return solved;
+	}
+
+	/**
+	 * Solves one marker. The solution with the lowest reprojection error is
+	 * written to out; when alternative is not null the other IPPE solution
+	 * is written there.
+	 */
+	public boolean solve(float[] corners, int offset, double[] out, int outOffset, double[] alternative, int altOffset){
+		for(int i = 0; i < 4; i++){
+			u[i] = (corners[offset + 2*i] - cx)/fx;
+			v[i] = (corners[offset + 2*i + 1] - cy)/fy;
+		}
+
+		// Projective map from the unit square (s, t) to the normalized quad
+		double sx = u[0] - u[1] + u[2] - u[3];
+		double sy = v[0] - v[1] + v[2] - v[3];
+		double dx1 = u[1] - u[2], dx2 = u[3] - u[2];
+		double dy1 = v[1] - v[2], dy2 = v[3] - v[2];
+
+		double den = dx1*dy2 - dx2*dy1;
+		if(Math.abs(den) < EPSILON)
+			return false;
+
+		double g = (sx*dy2 - dx2*sy)/den;
+		double h = (dx1*sy - sx*dy1)/den;
+		double a = u[1] - u[0] + g*u[1];
+		double b = u[3] - u[0] + h*u[3];
+		double d = v[1] - v[0] + g*v[1];
+		double e = v[3] - v[0] + h*v[3];
+
+		// Marker centre is (s, t) = (0.5, 0.5), and ds/dX = dt/dY = 1/(2h)
+		double w = 0.5*g + 0.5*h + 1;
+		if(Math.abs(w) < EPSILON)
+			return false;
+
+		double p = (0.5*a + 0.5*b + u[0])/w;
+		double q = (0.5*d + 0.5*e + v[0])/w;
+		double scale = 1/(w*2*halfLength);
+
+		double j00 = (a - p*g)*scale, j01 = (b - p*h)*scale;
+		double j10 = (d - q*g)*scale, j11 = (e - q*h)*scale;
+
+		if(!computeRotations(j00, j01, j10, j11, p, q))
+			return false;
+
+		computeTranslation(r1, t1);
+		computeTranslation(r2, t2);
+
+		double error1 = reprojectionError(r1, t1);
+		double error2 = reprojectionError(r2, t2);
+
+		boolean firstBest = error1 <= error2;
+		bestError = firstBest ? error1 : error2;
+		secondError = firstBest ? error2 : error1;
+
+		write(firstBest ? r1 : r2, firstBest ? t1 : t2, out, outOffset);
+		if(alternative != null)
+			write(firstBest ? r2 : r1, firstBest ? t2 : t1, alternative, altOffset);
+
+		return true;
+	}
+
+	/**
+	 * RMS reprojection error in pixels of the solution written by the last solve.
+	 */
+	public double getBestError(){
+		return bestError;
+	}
+
+	public double getSecondError(){
+		return secondError;
+	}
+
+	private boolean computeRotations(double j00, double j01, double j10, double j11, double p, double q){
+		// Rv rotates the line of sight through the centre onto the z axis
+		double nrm = Math.sqrt(p*p + q*q + 1);
+		double ax = p/nrm, ay = q/nrm, az = 1/nrm;
+		double f = 1/(1 + az);
+
+		rv[0] = 1 - ax*ax*f; rv[1] = -ax*ay*f;    rv[2] = ax;
+		rv[3] = -ax*ay*f;    rv[4] = 1 - ay*ay*f; rv[5] = ay;
+		rv[6] = -ax;         rv[7] = -ay;         rv[8] = 1 - (ax*ax + ay*ay)*f;
+
+		double b00 = rv[0] - p*rv[6], b01 = rv[1] - p*rv[7];
+		double b10 = rv[3] - q*rv[6], b11 = rv[4] - q*rv[7];
+
+		double det = b00*b11 - b01*b10;
+		if(Math.abs(det) < EPSILON)
+			return false;
+
+		double inv00 = b11/det, inv01 = -b01/det;
+		double inv10 = -b10/det, inv11 = b00/det;
+
+		double a00 = inv00*j00 + inv01*j10, a01 = inv00*j01 + inv01*j11;
+		double a10 = inv10*j00 + inv11*j10, a11 = inv10*j01 + inv11*j11;
+
+		// Largest singular value of the 2x2 block
+		double ata00 = a00*a00 + a01*a01;
+		double ata01 = a00*a10 + a01*a11;
+		double ata11 = a10*a10 + a11*a11;
+		double gamma = Math.sqrt(0.5*(ata00 + ata11 + Math.sqrt((ata00 - ata11)*(ata00 - ata11) + 4*ata01*ata01)));
+		if(gamma < EPSILON)
+			return false;
+
+		double rt00 = a00/gamma, rt01 = a01/gamma;
+		double rt10 = a10/gamma, rt11 = a11/gamma;
+
+		double c0 = Math.sqrt(Math.max(0, 1 - rt00*rt00 - rt10*rt10));
+		double c1 = Math.sqrt(Math.max(0, 1 - rt01*rt01 - rt11*rt11));
+		if(-rt00*rt01 - rt10*rt11 < 0)
+			c1 = -c1;
+
+		fillRotation(r1, rt00, rt01, rt10, rt11, c0, c1);
+		fillRotation(r2, rt00, rt01, rt10, rt11, -c0, -c1);
+		return true;
+	}
+
+	/**
+	 * R = Rv * [rt00 rt01 x; rt10 rt11 y; c0 c1 z], third column the cross
+	 * product of the first two.
+	 */
+	private void fillRotation(double[] r, double rt00, double rt01, double rt10, double rt11, double c0, double c1){
+		double x = rt10*c1 - c0*rt11;
+		double y = c0*rt01 - rt00*c1;
+		double z = rt00*rt11 - rt01*rt10;
+
+		for(int row = 0; row < 3; row++){
+			double m0 = rv[row*3], m1 = rv[row*3 + 1], m2 = rv[row*3 + 2];
+			r[row*3]     = m0*rt00 + m1*rt10 + m2*c0;
+			r[row*3 + 1] = m0*rt01 + m1*rt11 + m2*c1;
+			r[row*3 + 2] = m0*x + m1*y + m2*z;
+		}
+	}
+
+	/**
+	 * Least squares t for x = (R*X + t) projected, three normal equations.
+	 */
+	private void computeTranslation(double[] r, double[] t){
+		double s00 = 0, s02 = 0, s11 = 0, s12 = 0, s22 = 0;
+		double b0 = 0, b1 = 0, b2 = 0;
+
+		for(int i = 0; i < 4; i++){
+			double px = r[0]*objectX[i] + r[1]*objectY[i];
+			double py = r[3]*objectX[i] + r[4]*objectY[i];
+			double pz = r[6]*objectX[i] + r[7]*objectY[i];
+
+			// tx - u*tz = u*pz - px, ty - v*tz = v*pz - py
+			double ex = u[i]*pz - px;
+			double ey = v[i]*pz - py;
+
+			s00 += 1;
+			s02 -= u[i];
+			s11 += 1;
+			s12 -= v[i];
+			s22 += u[i]*u[i] + v[i]*v[i];
+
+			b0 += ex;
+			b1 += ey;
+			b2 -= u[i]*ex + v[i]*ey;
+		}
+
+		// Symmetric system [s00 0 s02; 0 s11 s12; s02 s12 s22]
+		double det = s00*(s11*s22 - s12*s12) - s02*s02*s11;
+		if(Math.abs(det) < EPSILON){
+			t[0] = 0; t[1] = 0; t[2] = 0;
+			return;
+		}
+
+		double i00 = s11*s22 - s12*s12;
+		double i01 = s02*s12;
+		double i02 = -s02*s11;
+		double i11 = s00*s22 - s02*s02;
+		double i12 = -s00*s12;
+		double i22 = s00*s11;
+
+		t[0] = (i00*b0 + i01*b1 + i02*b2)/det;
+		t[1] = (i01*b0 + i11*b1 + i12*b2)/det;
+		t[2] = (i02*b0 + i12*b1 + i22*b2)/det;
+	}
+
+	private double reprojectionError(double[] r, double[] t){
+		double sum = 0;
+		for(int i = 0; i < 4; i++){
+			double px = r[0]*objectX[i] + r[1]*objectY[i] + t[0];
+			double py = r[3]*objectX[i] + r[4]*objectY[i] + t[1];
+			double pz = r[6]*objectX[i] + r[7]*objectY[i] + t[2];
+			if(pz <= EPSILON)
+				return Double.MAX_VALUE;
+
+			double dx = (px/pz - u[i])*fx;
+			double dy = (py/pz - v[i])*fy;
+			sum += dx*dx + dy*dy;
+		}
+		return Math.sqrt(sum/4);
+	}
+
+	private static void write(double[] r, double[] t, double[] out, int offset){
+		PoseMath.matrixToRodrigues(r, 0, out, offset);
+		out[offset + 3] = t[0];
+		out[offset + 4] = t[1];
+		out[offset + 5] = t[2];
+		PoseMath.matrixToQuaternion(r, 0, out, offset + 6);
+	}
+
+}
@@ -7,6 +7,7 @@ import org.rajawali3d.Object3D;
 import org.rajawali3d.lights.PointLight;
 import org.rajawali3d.loader.LoaderOBJ;
 import org.rajawali3d.loader.ParsingException;
+import org.rajawali3d.math.Quaternion;
 import org.rajawali3d.renderer.Renderer;
 
 import mg.rivolink.app.aruco.R;
@@ -15,6 +16,11 @@ public class Renderer3D extends Renderer {
 
 	private Object3D model;
 	private PointLight light;
+
+	private final Object poseLock = new Object();
+	private final double[] pendingPose = new double[7];
+	private final Quaternion orientation = new Quaternion();
+	private boolean posePending = false;
 	
 	public Renderer3D(Context context){
 		super(context);
@@ -44,22 +50,38 @@ public class Renderer3D extends Renderer {
 		}
 	}
 
-	public void transform(double tx, double ty, double tz, double yaw, double pitch, double roll){
-		/* Some bugs here
-		if(!model.isVisible())
-			model.setVisible(true);
-
-		model.setPosition(tx, ty, tz);
-		model.setOrientation(new Quaternion().fromEuler(
-			Math.toDegrees(yaw),
-			Math.toDegrees(pitch),
-			Math.toDegrees(roll)
-		));
-		*/
+	public void setModelVisible(boolean visible){
+		if(model != null)
+			model.setVisible(visible);
+	}
+
+	/**
+	 * Model pose in scene (OpenGL) coordinates, orientation as a unit
+	 * quaternion. Safe to call from any thread, applied on the next frame.
+	 */
+	public void transform(double tx, double ty, double tz, double qw, double qx, double qy, double qz){
+		synchronized(poseLock){
+			pendingPose[0] = tx;
+			pendingPose[1] = ty;
+			pendingPose[2] = tz;
+			pendingPose[3] = qw;
+			pendingPose[4] = qx;
+			pendingPose[5] = qy;
+			pendingPose[6] = qz;
+			posePending = true;
+		}
 	}
 
 	@Override
 	protected void render(long ellapsedRealtime, double deltaTime){
+		synchronized(poseLock){
+			if(posePending && model != null){
+				model.setPosition(pendingPose[0], pendingPose[1], pendingPose[2]);
+				model.setOrientation(orientation.setAll(pendingPose[3], pendingPose[4], pendingPose[5], pendingPose[6]));
+				posePending = false;
+			}
+		}
+
 		super.render(ellapsedRealtime, deltaTime);
 		//model.rotate(Vector3.Axis.Y, 0.5);
 	}
@@ -0,0 +1,233 @@
+package mg.rivolink.app.aruco.tracking;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.video.Video;
+
+import mg.rivolink.app.aruco.detection.DetectionResult;
+import mg.rivolink.app.aruco.detection.MarkerDetector;
+
+/**
+ * Hybrid detector/tracker: full detection on keyframes, pyramidal
+ * Lucas-Kanade propagation of the marker corners in between.
+ *
+ * Tracked quads are checked by forward-backward error and geometry; if any
+ * marker fails, the frame falls back to full detection. Output goes to a
+ * reusable DetectionResult, no Mat is created per marker.
+ *
+ * Markers only appear on keyframes. Frames without any marker are all
+ * keyframes, a frame after corners moved more than maxTrackedMotion pixels
+ * is one too, and callers can force one with invalidate(). Otherwise a
+ * marker entering the view waits up to keyframeInterval frames.
+ */
+public class MarkerTracker {
+
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 10;
+	public static final double DEFAULT_MAX_FB_ERROR = 1.0;
+	public static final double DEFAULT_MAX_TRACKED_MOTION = 8.0;
+
+	private static final double MIN_AREA_RATIO = 0.5;
+	private static final double MAX_AREA_RATIO = 2.0;
+
+	private final MarkerDetector detector;
+
+	private int keyframeInterval = DEFAULT_KEYFRAME_INTERVAL;
+	private double maxFbError = DEFAULT_MAX_FB_ERROR;
+	private double maxTrackedMotion = DEFAULT_MAX_TRACKED_MOTION;
+
+	private final Size winSize = new Size(21, 21);
+	private final int maxLevel = 3;
+	private final TermCriteria criteria = new TermCriteria(TermCriteria.COUNT | TermCriteria.EPS, 20, 0.03);
+
+	private final Mat prevGray = new Mat();
+	private final DetectionResult detected = new DetectionResult();
+
+	private final MatOfPoint2f prevPts = new MatOfPoint2f();
+	private final MatOfPoint2f nextPts = new MatOfPoint2f();
+	private final MatOfPoint2f backPts = new MatOfPoint2f();
+	private final MatOfByte status = new MatOfByte();
+	private final MatOfByte backStatus = new MatOfByte();
+	private final MatOfFloat err = new MatOfFloat();
+
+	private int count = 0;
+	private int[] trackIds = new int[0];
+	private float[] prev = new float[0];
+	private float[] next = new float[0];
+	private float[] back = new float[0];
+	private byte[] ok = new byte[0];
+	private byte[] backOk = new byte[0];
+
+	private boolean hasKeyframe = false;
+	private int framesSinceKeyframe = 0;
+	private boolean lastFrameTracked = false;
+
+	public MarkerTracker(MarkerDetector detector){
+		this.detector = detector;
+	}
+
+	public void setKeyframeInterval(int keyframeInterval){
+		this.keyframeInterval = keyframeInterval;
+	}
+
+	public void setMaxFbError(double maxFbError){
+		this.maxFbError = maxFbError;
+	}
+
+	/**
+	 * Corner motion in pixels per frame past which the next frame is a
+	 * keyframe: fast camera motion is when new markers come into view.
+	 */
+	public void setMaxTrackedMotion(double maxTrackedMotion){
+		this.maxTrackedMotion = maxTrackedMotion;
+	}
+
+	/**
+	 * True if the last call to track propagated corners instead of detecting.
+	 */
+	public boolean isLastFrameTracked(){
+		return lastFrameTracked;
+	}
+
+	/**
+	 * Forces full detection on the next frame.
+	 */
+	public void invalidate(){
+		hasKeyframe = false;
+	}
+
+	public void track(Mat gray, DetectionResult result){
+		lastFrameTracked = hasKeyframe && count > 0
+			&& framesSinceKeyframe < keyframeInterval
+			&& propagate(gray);
+
+		if(lastFrameTracked){
+			framesSinceKeyframe++;
+		}
+		else {
+			detect(gray);
+			framesSinceKeyframe = 0;
+		}
+
+		gray.copyTo(prevGray);
+		hasKeyframe = true;
+
+		result.setSize(count);
+		System.arraycopy(prev, 0, result.getCorners(), 0, count*DetectionResult.CORNER_FLOATS);
+		System.arraycopy(trackIds, 0, result.getIds(), 0, count);
+	}
+
+	public void release(){
+		prevGray.release();
+		prevPts.release();
+		nextPts.release();
+		backPts.release();
+		status.release();
+		backStatus.release();
+		err.release();
+	}
+
+	private void detect(Mat gray){
+		detector.detect(gray, detected);
+
+		count = detected.size();
+		ensureCapacity(count);
+
+		System.arraycopy(detected.getIds(), 0, trackIds, 0, count);
+		System.arraycopy(detected.getCorners(), 0, prev, 0, count*DetectionResult.CORNER_FLOATS);
+	}
+
+	private boolean propagate(Mat gray){
+		int points = count*4;
+
+		prevPts.alloc(points);
+		prevPts.put(0, 0, prev);
+
+		Video.calcOpticalFlowPyrLK(prevGray, gray, prevPts, nextPts, status, err, winSize, maxLevel, criteria);
+		Video.calcOpticalFlowPyrLK(gray, prevGray, nextPts, backPts, backStatus, err, winSize, maxLevel, criteria);
+
+		nextPts.get(0, 0, next);
+		backPts.get(0, 0, back);
+		status.get(0, 0, ok);
+		backStatus.get(0, 0, backOk);
+
+		double maxFbError2 = maxFbError*maxFbError;
+		double motion2 = 0;
+
+		for(int i = 0; i < count; i++){
+			for(int j = 0; j < 4; j++){
+				int p = i*4 + j;
+				if(ok[p] == 0 || backOk[p] == 0)
+					return false;
+
+				float dx = back[2*p] - prev[2*p];
+				float dy = back[2*p + 1] - prev[2*p + 1];
+				if(dx*dx + dy*dy > maxFbError2)
+					return false;
+
+				dx = next[2*p] - prev[2*p];
+				dy = next[2*p + 1] - prev[2*p + 1];
+				motion2 = Math.max(motion2, dx*dx + dy*dy);
+			}
+
+			if(!isValidQuad(next, prev, i*8))
+				return false;
+		}
+
+		System.arraycopy(next, 0, prev, 0, points*2);
+
+		if(motion2 > maxTrackedMotion*maxTrackedMotion)
+			hasKeyframe = false;
+		return true;
+	}
+
+	private static boolean isValidQuad(float[] quad, float[] previous, int offset){
+		double area = signedArea(quad, offset);
+		double previousArea = signedArea(previous, offset);
+
+		if(area == 0 || Math.signum(area) != Math.signum(previousArea))
+			return false;
+
+		double ratio = area/previousArea;
+		if(ratio < MIN_AREA_RATIO || ratio > MAX_AREA_RATIO)
+			return false;
+
+		// Convexity: every turn has the same orientation as the whole quad
+		for(int j = 0; j < 4; j++){
+			int a = offset + 2*j;
+			int b = offset + 2*((j + 1)%4);
+			int c = offset + 2*((j + 2)%4);
+			double cross = (quad[b] - quad[a])*(quad[c + 1] - quad[b + 1]) - (quad[b + 1] - quad[a + 1])*(quad[c] - quad[b]);
+			if(Math.signum(cross) != Math.signum(area))
+				return false;
+		}
+
+		return true;
+	}
+
+	private static double signedArea(float[] quad, int offset){
+		double area = 0;
+		for(int j = 0; j < 4; j++){
+			int a = offset + 2*j;
+			int b = offset + 2*((j + 1)%4);
+			area += quad[a]*quad[b + 1] - quad[b]*quad[a + 1];
+		}
+		return area/2;
+	}
+
+	private void ensureCapacity(int markers){
+		if(trackIds.length >= markers)
+			return;
+
+		trackIds = new int[markers];
+		prev = new float[markers*8];
+		next = new float[markers*8];
+		back = new float[markers*8];
+		ok = new byte[markers*4];
+		backOk = new byte[markers*4];
+	}
+
+}
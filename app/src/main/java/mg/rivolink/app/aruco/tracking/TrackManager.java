@@ -0,0 +1,176 @@
+package mg.rivolink.app.aruco.tracking;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-ID hysteresis over raw per-frame detections.
+ *
+ * A marker is confirmed after N consecutive detections and dropped after M
+ * consecutive misses; in between, its pose is extrapolated with a constant
+ * velocity model. Listeners only hear about confirmed appear/disappear
+ * transitions, not every flicker of the detector.
+ */
+public class TrackManager {
+
+	public static final int DEFAULT_CONFIRM_HITS = 3;
+	public static final int DEFAULT_DROP_MISSES = 5;
+
+	public interface Listener {
+		void onMarkerAppeared(Track track);
+		void onMarkerDisappeared(Track track);
+	}
+
+	public static class Track {
+		public final int id;
+
+		public final double[] rvec = new double[3];
+		public final double[] tvec = new double[3];
+
+		private final double[] velocity = new double[3];
+
+		private int hits = 0;
+		private int misses = 0;
+		private boolean confirmed = false;
+		private long lastFrame = -1;
+
+		Track(int id){
+			this.id = id;
+		}
+
+		public boolean isConfirmed(){
+			return confirmed;
+		}
+
+		/**
+		 * True when the pose is extrapolated because the marker was missed.
+		 */
+		public boolean isPredicted(){
+			return misses > 0;
+		}
+
+		public int getMisses(){
+			return misses;
+		}
+	}
+
+	private final int confirmHits;
+	private final int dropMisses;
+
+	private final Map<Integer, Track> tracks = new HashMap<>();
+	private final List<Track> confirmed = new ArrayList<>();
+
+	private Listener listener;
+	private long frame = 0;
+	private int missedCount = 0;
+
+	public TrackManager(){
+		this(DEFAULT_CONFIRM_HITS, DEFAULT_DROP_MISSES);
+	}
+
+	public TrackManager(int confirmHits, int dropMisses){
+		this.confirmHits = confirmHits;
+		this.dropMisses = dropMisses;
+	}
+
+	public void setListener(Listener listener){
+		this.listener = listener;
+	}
+
+	/**
+	 * Feeds one frame of detections. Poses are packed three doubles per marker.
+	 */
+	public void update(int[] ids, double[] rvecs, double[] tvecs, int count){
+		frame++;
+		missedCount = 0;
+
+		for(int i = 0; i < count; i++){
+			Track track = tracks.get(ids[i]);
+			if(track == null){
+				track = new Track(ids[i]);
+				tracks.put(ids[i], track);
+			}
+
+			for(int k = 0; k < 3; k++){
+				if(track.hits > 0 && track.misses == 0)
+					track.velocity[k] = tvecs[3*i + k] - track.tvec[k];
+
+				track.rvec[k] = rvecs[3*i + k];
+				track.tvec[k] = tvecs[3*i + k];
+			}
+
+			track.hits++;
+			track.misses = 0;
+			track.lastFrame = frame;
+
+			if(!track.confirmed && track.hits >= confirmHits){
+				track.confirmed = true;
+				if(listener != null)
+					listener.onMarkerAppeared(track);
+			}
+		}
+
+		Iterator<Track> iterator = tracks.values().iterator();
+		while(iterator.hasNext()){
+			Track track = iterator.next();
+			if(track.lastFrame == frame)
+				continue;
+
+			track.misses++;
+			if(track.confirmed)
+				missedCount++;
+
+			if(!track.confirmed){
+				iterator.remove();
+			}
+			else if(track.misses >= dropMisses){
+				iterator.remove();
+				track.confirmed = false;
+				if(listener != null)
+					listener.onMarkerDisappeared(track);
+			}
+			else {
+				for(int k = 0; k < 3; k++)
+					track.tvec[k] += track.velocity[k];
+			}
+		}
+	}
+
+	/**
+	 * Confirmed tracks missing from the last update, dropped ones included.
+	 */
+	public int getMissedCount(){
+		return missedCount;
+	}
+
+	public Track getTrack(int id){
+		return tracks.get(id);
+	}
+
+	/**
+	 * Confirmed tracks, including those carried through a short gap.
+	 * The returned list is reused on the next call.
+	 */
+	public List<Track> getConfirmedTracks(){
+		confirmed.clear();
+		for(Track track : tracks.values()){
+			if(track.confirmed)
+				confirmed.add(track);
+		}
+		return confirmed;
+	}
+
+	public void clear(){
+		if(listener != null){
+			for(Track track : tracks.values()){
+				if(track.confirmed)
+					listener.onMarkerDisappeared(track);
+			}
+		}
+		tracks.clear();
+	}
+
+}
@@ -9,19 +9,27 @@ public class CameraParameters {
 	public static Mat createDefaultCameraMatrix(int width, int height) {
 		Mat cameraMatrix = Mat.eye(3, 3, CvType.CV_64FC1);
 		
-		double fx = width * 0.8;
-		double fy = height * 0.8;
-		double cx = width / 2.0;
-		double cy = height / 2.0;
+		double[] intrinsics = new double[4];
+		getDefaultIntrinsics(width, height, intrinsics);
 		
-		cameraMatrix.put(0, 0, fx);
-		cameraMatrix.put(1, 1, fy);
-		cameraMatrix.put(0, 2, cx);
-		cameraMatrix.put(1, 2, cy);
+		cameraMatrix.put(0, 0, intrinsics[0]);
+		cameraMatrix.put(1, 1, intrinsics[1]);
+		cameraMatrix.put(0, 2, intrinsics[2]);
+		cameraMatrix.put(1, 2, intrinsics[3]);
 		
 		return cameraMatrix;
 	}
 	
+	/**
+	 * Default fx, fy, cx, cy for an image size, without a Mat.
+	 */
+	public static void getDefaultIntrinsics(int width, int height, double[] intrinsics) {
+		intrinsics[0] = width * 0.8;
+		intrinsics[1] = height * 0.8;
+		intrinsics[2] = width / 2.0;
+		intrinsics[3] = height / 2.0;
+	}
+	
 	public static MatOfDouble createDefaultDistortionCoefficients() {
 		return new MatOfDouble(Mat.zeros(5, 1, CvType.CV_64FC1));
 	}
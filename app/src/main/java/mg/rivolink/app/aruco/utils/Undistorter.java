@@ -0,0 +1,124 @@
+package mg.rivolink.app.aruco.utils;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Lens undistortion for detected points, with full-frame undistortion kept
+ * as an optional display step.
+ *
+ * Detection runs on the raw image; only corners are undistorted, in Java,
+ * with the iterative scheme of cv::undistortPoints and the coefficients read
+ * once. Undistorted points stay in pixels for the same camera matrix, so pose
+ * is then solved with zero distortion. Supports the 4, 5 and 8 coefficient
+ * models (k1, k2, p1, p2[, k3[, k4, k5, k6]]).
+ */
+public class Undistorter {
+
+	public static final int ITERATIONS = 5;
+
+	private final double fx, fy, cx, cy;
+	private final double k1, k2, p1, p2, k3, k4, k5, k6;
+	private final boolean distorted;
+
+	private final Mat cameraMatrix;
+	private final Mat distCoeffs;
+
+	// Display-only remap tables, built on first use for a given frame size
+	private final Mat map1 = new Mat();
+	private final Mat map2 = new Mat();
+	private final Mat noRotation = new Mat();
+	private Size mapSize;
+
+	public Undistorter(Mat cameraMatrix, Mat distCoeffs){
+		double[] k = new double[9];
+		cameraMatrix.get(0, 0, k);
+		fx = k[0];
+		fy = k[4];
+		cx = k[2];
+		cy = k[5];
+
+		double[] d = new double[8];
+		if(distCoeffs != null && !distCoeffs.empty())
+			distCoeffs.get(0, 0, d);
+		k1 = d[0]; k2 = d[1]; p1 = d[2]; p2 = d[3];
+		k3 = d[4]; k4 = d[5]; k5 = d[6]; k6 = d[7];
+
+		boolean any = false;
+		for(double coefficient : d)
+			any |= coefficient != 0;
+		distorted = any;
+
+		this.cameraMatrix = cameraMatrix.clone();
+		this.distCoeffs = distCoeffs != null ? distCoeffs.clone() : Mat.zeros(5, 1, CvType.CV_64FC1);
+	}
+
+	public boolean hasDistortion(){
+		return distorted;
+	}
+
+	/**
+	 * Undistorts count (x, y) pixel pairs in place, starting at offset.
+	 */
+	public void undistort(float[] points, int offset, int count){
+		if(!distorted)
+			return;
+
+		for(int i = 0; i < count; i++){
+			int index = offset + 2*i;
+			double x0 = (points[index] - cx)/fx;
+			double y0 = (points[index + 1] - cy)/fy;
+			double x = x0, y = y0;
+
+			for(int iteration = 0; iteration < ITERATIONS; iteration++){
+				double r2 = x*x + y*y;
+				double icdist = (1 + ((k6*r2 + k5)*r2 + k4)*r2)/(1 + ((k3*r2 + k2)*r2 + k1)*r2);
+				if(icdist < 0){
+					x = x0;
+					y = y0;
+					break;
+				}
+
+				double dx = 2*p1*x*y + p2*(r2 + 2*x*x);
+				double dy = p1*(r2 + 2*y*y) + 2*p2*x*y;
+				x = (x0 - dx)*icdist;
+				y = (y0 - dy)*icdist;
+			}
+
+			points[index] = (float)(x*fx + cx);
+			points[index + 1] = (float)(y*fy + cy);
+		}
+	}
+
+	/**
+	 * Full-frame undistortion for display only. The remap tables are
+	 * computed once per frame size and reused.
+	 */
+	public void undistortImage(Mat src, Mat dst){
+		if(!distorted){
+			src.copyTo(dst);
+			return;
+		}
+
+		Size size = src.size();
+		if(mapSize == null || mapSize.width != size.width || mapSize.height != size.height){
+			Calib3d.initUndistortRectifyMap(cameraMatrix, distCoeffs, noRotation, cameraMatrix,
+				size, CvType.CV_16SC2, map1, map2);
+			mapSize = size;
+		}
+
+		Imgproc.remap(src, dst, map1, map2, Imgproc.INTER_LINEAR);
+	}
+
+	public void release(){
+		cameraMatrix.release();
+		distCoeffs.release();
+		map1.release();
+		map2.release();
+		noRotation.release();
+	}
+
+}
@@ -0,0 +1,179 @@
+package mg.rivolink.app.aruco.pose;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SquarePoseSolver against reference poses: random marker poses are
+ * projected through a pinhole camera, solved back and compared with the
+ * pose they were made from.
+ */
+public class SquarePoseSolverTest {
+
+	private static final float LENGTH = 0.05f;
+	private static final double FX = 800, FY = 780, CX = 320, CY = 240;
+
+	private final Random random = new Random(42);
+
+	private final double[] rvec = new double[3];
+	private final double[] tvec = new double[3];
+	private final double[] reference = new double[PoseMath.TRANSFORM_SIZE];
+	private final double[] solved = new double[PoseMath.TRANSFORM_SIZE];
+	private final double[] point = new double[3];
+
+	@Test
+	public void recoversRandomPoses(){
+		SquarePoseSolver solver = newSolver();
+		float[] corners = new float[SquarePoseSolver.CORNERS_SIZE];
+		double[] out = new double[SquarePoseSolver.OUTPUT_SIZE];
+
+		for(int n = 0; n < 1000; n++){
+			randomPose(Math.toRadians(10), Math.toRadians(60));
+			project(corners, 0);
+
+			assertTrue(solver.solve(corners, 0, out, 0, null, 0));
+			assertPose(out, 0, 1e-4);
+			assertTrue(solver.getBestError() < 0.01);
+			assertTrue(solver.getBestError() <= solver.getSecondError());
+		}
+	}
+
+	@Test
+	public void solvesManyMarkersAtOnce(){
+		SquarePoseSolver solver = newSolver();
+		int count = 32;
+		float[] corners = new float[count*SquarePoseSolver.CORNERS_SIZE];
+		double[] poses = new double[count*6];
+		double[] out = new double[count*SquarePoseSolver.OUTPUT_SIZE];
+
+		for(int i = 0; i < count; i++){
+			randomPose(Math.toRadians(10), Math.toRadians(60));
+			project(corners, i*SquarePoseSolver.CORNERS_SIZE);
+			System.arraycopy(rvec, 0, poses, i*6, 3);
+			System.arraycopy(tvec, 0, poses, i*6 + 3, 3);
+		}
+
+		assertEquals(count, solver.solveAll(corners, count, out));
+
+		for(int i = 0; i < count; i++){
+			System.arraycopy(poses, i*6, rvec, 0, 3);
+			System.arraycopy(poses, i*6 + 3, tvec, 0, 3);
+			assertPose(out, i*SquarePoseSolver.OUTPUT_SIZE, 1e-4);
+		}
+	}
+
+	@Test
+	public void quaternionMatchesRvec(){
+		SquarePoseSolver solver = newSolver();
+		float[] corners = new float[SquarePoseSolver.CORNERS_SIZE];
+		double[] out = new double[SquarePoseSolver.OUTPUT_SIZE];
+		double[] expected = new double[4];
+
+		randomPose(Math.toRadians(20), Math.toRadians(50));
+		project(corners, 0);
+		assertTrue(solver.solve(corners, 0, out, 0, null, 0));
+
+		PoseMath.rodriguesToQuaternion(out, 0, expected, 0);
+		double sign = expected[0]*out[6] < 0 ? -1 : 1;
+		for(int k = 0; k < 4; k++)
+			assertEquals(expected[k], sign*out[6 + k], 1e-9);
+	}
+
+	@Test
+	public void alternativeIsTheMirroredSolution(){
+		SquarePoseSolver solver = newSolver();
+		float[] corners = new float[SquarePoseSolver.CORNERS_SIZE];
+		double[] out = new double[SquarePoseSolver.OUTPUT_SIZE];
+		double[] alternative = new double[SquarePoseSolver.OUTPUT_SIZE];
+
+		randomPose(Math.toRadians(30), Math.toRadians(50));
+		project(corners, 0);
+		assertTrue(solver.solve(corners, 0, out, 0, alternative, 0));
+
+		assertPose(out, 0, 1e-4);
+		// Both lie at the same distance, tilted the other way
+		assertEquals(out[5], alternative[5], 0.05*out[5]);
+		assertTrue(solver.getSecondError() > solver.getBestError());
+	}
+
+	@Test
+	public void rejectsDegenerateQuads(){
+		SquarePoseSolver solver = newSolver();
+		double[] out = new double[SquarePoseSolver.OUTPUT_SIZE];
+
+		float[] point = { 100, 100, 100, 100, 100, 100, 100, 100 };
+		assertFalse(solver.solve(point, 0, out, 0, null, 0));
+
+		float[] line = { 100, 100, 200, 100, 300, 100, 400, 100 };
+		assertFalse(solver.solve(line, 0, out, 0, null, 0));
+	}
+
+	private static SquarePoseSolver newSolver(){
+		SquarePoseSolver solver = new SquarePoseSolver(LENGTH);
+		solver.setIntrinsics(FX, FY, CX, CY);
+		return solver;
+	}
+
+	// Marker facing the camera, tilted between minTilt and maxTilt about a
+	// random in-plane axis, spun about its normal and placed in view
+	private void randomPose(double minTilt, double maxTilt){
+		double spin = random.nextDouble()*2*Math.PI;
+		double axis = random.nextDouble()*2*Math.PI;
+		double tilt = minTilt + random.nextDouble()*(maxTilt - minTilt);
+
+		double[] spinQ = { Math.cos(spin/2), 0, 0, Math.sin(spin/2) };
+		double[] tiltQ = { Math.cos(tilt/2), Math.sin(tilt/2)*Math.cos(axis), Math.sin(tilt/2)*Math.sin(axis), 0 };
+		double[] q = multiply(tiltQ, spinQ);
+		PoseMath.quaternionToRodrigues(q, 0, rvec, 0);
+
+		tvec[2] = 0.2 + random.nextDouble()*0.8;
+		tvec[0] = (random.nextDouble() - 0.5)*0.5*tvec[2];
+		tvec[1] = (random.nextDouble() - 0.5)*0.5*tvec[2];
+	}
+
+	// Corners in the solver's marker frame, ArUco order
+	private void project(float[] corners, int offset){
+		PoseMath.fromRvecTvec(rvec, 0, tvec, 0, reference);
+
+		double h = LENGTH/2.0;
+		double[] x = { -h, h, h, -h };
+		double[] y = { -h, -h, h, h };
+		for(int k = 0; k < 4; k++){
+			PoseMath.transformPoint(reference, x[k], y[k], 0, point, 0);
+			corners[offset + 2*k] = (float)(FX*point[0]/point[2] + CX);
+			corners[offset + 2*k + 1] = (float)(FY*point[1]/point[2] + CY);
+		}
+	}
+
+	// Compares the solved pose with rvec/tvec on the marker corners and a
+	// point off the marker plane, which tells the two IPPE solutions apart
+	private void assertPose(double[] out, int offset, double tolerance){
+		PoseMath.fromRvecTvec(rvec, 0, tvec, 0, reference);
+		PoseMath.fromRvecTvec(out, offset, out, offset + 3, solved);
+
+		double h = LENGTH/2.0;
+		double[][] points = { { -h, -h, 0 }, { h, -h, 0 }, { h, h, 0 }, { -h, h, 0 }, { 0, 0, LENGTH } };
+		double[] expected = new double[3];
+		for(double[] p : points){
+			PoseMath.transformPoint(reference, p[0], p[1], p[2], expected, 0);
+			PoseMath.transformPoint(solved, p[0], p[1], p[2], point, 0);
+			for(int k = 0; k < 3; k++)
+				assertEquals(expected[k], point[k], tolerance*Math.max(1, expected[2]));
+		}
+	}
+
+	private static double[] multiply(double[] a, double[] b){
+		return new double[]{
+			a[0]*b[0] - a[1]*b[1] - a[2]*b[2] - a[3]*b[3],
+			a[0]*b[1] + a[1]*b[0] + a[2]*b[3] - a[3]*b[2],
+			a[0]*b[2] - a[1]*b[3] + a[2]*b[0] + a[3]*b[1],
+			a[0]*b[3] + a[1]*b[2] - a[2]*b[1] + a[3]*b[0]
+		};
+	}
+
+}
@@ -40,8 +40,10 @@ public class CameraCalibrator{
 	private MatOfInt markerCounterPerFrame;
 
 	private MatOfInt ids;
+	private MatOfInt frameCount;
 	private List<Mat> corners;
 	private List<Mat> rejected;
+	private List<Mat> unrefined;
 	private DetectorParameters parameters;
 	
 	private boolean addFrame = false;
@@ -71,8 +73,13 @@ public class CameraCalibrator{
 		allCornersConcatenated = new LinkedList<>();
 		markerCounterPerFrame = new MatOfInt();
 		
+		// Reused every frame, detectMarkers reallocates their content
+		ids = new MatOfInt();
+		frameCount = new MatOfInt();
+
 		corners = new LinkedList<>();
 		rejected = new LinkedList<>();
+		unrefined = new LinkedList<>();
 		parameters = DetectorParameters.create();
 	}
 	
@@ -90,6 +97,10 @@ public class CameraCalibrator{
 	
 	public void release(){
 		ids.release();
+		frameCount.release();
+		releaseAll(corners);
+		releaseAll(rejected);
+		releaseAll(allCornersConcatenated);
 		allIdsConcatenated.release();
 		markerCounterPerFrame.release();
 	}
@@ -97,7 +108,7 @@ public class CameraCalibrator{
 	public void clear(){
 		captured = 0;
 		
-		allCornersConcatenated.clear();
+		releaseAll(allCornersConcatenated);
 		
 		allIdsConcatenated.release();
 		allIdsConcatenated = new Mat();
@@ -136,21 +147,28 @@ public class CameraCalibrator{
 
 		captured++;
 
-		allCornersConcatenated.addAll(corners);
+		// Copies, the detected corner Mats are released on the next frame
+		for(Mat corner : corners)
+			allCornersConcatenated.add(corner.clone());
 		allIdsConcatenated.push_back(ids);
-		markerCounterPerFrame.push_back(new MatOfInt(corners.size()));
+
+		frameCount.fromArray(corners.size());
+		markerCounterPerFrame.push_back(frameCount);
 
 		return true;
 	}
 	
 	private void detectMarkers(Mat rgb, Mat gray){
-		ids = new MatOfInt();
-		
-		corners.clear();
-		rejected.clear();
+		releaseAll(corners);
+		releaseAll(rejected);
 		
 		Aruco.detectMarkers(gray, dictionary, corners, ids, parameters, rejected);
+
+		// Refinement refills both lists with new Mats, drop the old headers
+		unrefined.addAll(corners);
+		unrefined.addAll(rejected);
 		Aruco.refineDetectedMarkers(gray, board, corners, ids, rejected);
+		releaseAll(unrefined);
 
 		if(corners.size()>0)
 			Aruco.drawDetectedMarkers(rgb, corners);
@@ -163,5 +181,10 @@ public class CameraCalibrator{
 				listener.onAddFrame(saved);
 		}
 	}
+	
+	private static void releaseAll(List<Mat> mats){
+		for(Mat mat : mats)
+			mat.release();
+		mats.clear();
+	}
 }
-
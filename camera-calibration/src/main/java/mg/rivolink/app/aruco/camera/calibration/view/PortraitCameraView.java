@@ -238,22 +238,23 @@ public class PortraitCameraView extends CameraBridgeViewBase implements Camera.P
         private Mat mRgba;
         private int mWidth;
         private int mHeight;
-        private Mat mRotated;
+        private Mat mGray;
+        private Mat mGrayRotated;
+        private Mat mRgbaRotated;
 
         public Mat gray() {
-            if (mRotated != null) mRotated.release();
-            mRotated = mYuvFrameData.submat(0, mWidth, 0, mHeight); //submat with reversed width and height because its done on the landscape frame
-            mRotated = mRotated.t();
-            Core.flip(mRotated, mRotated, 1);
-            return mRotated;
+            // The frame chain is still landscape: rotating a clockwise quarter
+            // turn equals the former transpose and horizontal flip
+            if (mGray == null)
+                mGray = mYuvFrameData.submat(0, mWidth, 0, mHeight); //submat with reversed width and height because its done on the landscape frame
+            Core.rotate(mGray, mGrayRotated, Core.ROTATE_90_CLOCKWISE);
+            return mGrayRotated;
         }
 
         public Mat rgba() {
             Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2BGR_NV12, 4);
-            if (mRotated != null) mRotated.release();
-            mRotated = mRgba.t();
-            Core.flip(mRotated, mRotated, 1);
-            return mRotated;
+            Core.rotate(mRgba, mRgbaRotated, Core.ROTATE_90_CLOCKWISE);
+            return mRgbaRotated;
         }
 
         public JavaCameraFrame(Mat Yuv420sp, int width, int height) {
@@ -261,12 +262,17 @@ public class PortraitCameraView extends CameraBridgeViewBase implements Camera.P
             mWidth = width;
             mHeight = height;
             mYuvFrameData = Yuv420sp;
+            // Kept for the whole session, the rotations reuse their buffers
             mRgba = new Mat();
+            mGrayRotated = new Mat();
+            mRgbaRotated = new Mat();
         }
 
         public void release() {
             mRgba.release();
-            if (mRotated != null) mRotated.release();
+            mGrayRotated.release();
+            mRgbaRotated.release();
+            if (mGray != null) mGray.release();
         }
 
 
@@ -1,11 +1,14 @@
 package org.opencv.android;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import org.opencv.BuildConfig;
 import org.opencv.R;
 import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.MatPool;
 import org.opencv.core.Size;
 
 import android.app.Activity;
@@ -39,6 +42,11 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
 
     private int mState = STOPPED;
     private Bitmap mCacheBitmap;
+    private ByteBuffer mOutputBuffer;
+    private Mat mOutputFrame;
+    private Object mOutputFrameOwner;
+    private final Rect mSrcRect = new Rect();
+    private final Rect mDstRect = new Rect();
     private CvCameraViewListener2 mListener;
     private boolean mSurfaceExist;
     private final Object mSyncObject = new Object();
@@ -53,6 +61,8 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     protected boolean mEnabled;
     protected boolean mCameraPermissionGranted = false;
     protected FpsMeter mFpsMeter = null;
+    // Frame-sized buffers shared by the camera frames, emptied when the camera stops
+    protected final MatPool mFramePool = new MatPool(2);
 
     public static final int CAMERA_ID_ANY   = -1;
     public static final int CAMERA_ID_BACK  = 99;
@@ -184,7 +194,9 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     public interface CvCameraViewFrame {
 
         /**
-         * This method returns RGBA Mat with frame
+         * This method returns RGBA Mat with frame. The Mat may be the one returned by
+         * getOutputFrame(); repeated calls within one frame return the same Mat,
+         * converted again from the camera data.
          */
         public Mat rgba();
 
@@ -200,7 +212,10 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         @Override
         public Mat gray() {
             if (mRotation != 0) {
-                Core.rotate(mFrame.gray(), mGrayRotated, getCvRotationCode(mRotation));
+                Mat gray = mFrame.gray();
+                if (mGrayRotated == null)
+                    mGrayRotated = acquireRotated(gray);
+                Core.rotate(gray, mGrayRotated, getCvRotationCode(mRotation));
                 return mGrayRotated;
             } else {
                 return mFrame.gray();
@@ -210,8 +225,25 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         @Override
         public Mat rgba() {
             if (mRotation != 0) {
-                Core.rotate(mFrame.rgba(), mRgbaRotated, getCvRotationCode(mRotation));
-                return mRgbaRotated;
+                // Rotate straight into the presented pixels when possible. At 180
+                // degrees the unrotated frame has the output shape too, so claim
+                // it before the wrapped frame converts into it
+                Mat rotated = null;
+                if (mRotation == 180)
+                    rotated = takeOutputFrame(this, mFrameHeight, mFrameWidth, CvType.CV_8UC4);
+                Mat rgba = mFrame.rgba();
+                if (mRotation != 180)
+                    rotated = takeOutputFrame(this, rgba.cols(), rgba.rows(), rgba.type());
+                else if (rotated != null && (rgba.rows() != rotated.rows()
+                        || rgba.cols() != rotated.cols() || rgba.type() != rotated.type()))
+                    rotated = null;
+                if (rotated == null) {
+                    if (mRgbaRotated == null)
+                        mRgbaRotated = acquireRotated(rgba);
+                    rotated = mRgbaRotated;
+                }
+                Core.rotate(rgba, rotated, getCvRotationCode(mRotation));
+                return rotated;
             } else {
                 return mFrame.rgba();
             }
@@ -227,18 +259,24 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             }
         }
 
+        private Mat acquireRotated(Mat src) {
+            if (mRotation == 180)
+                return mFramePool.acquire(src.rows(), src.cols(), src.type());
+            return mFramePool.acquire(src.cols(), src.rows(), src.type());
+        }
+
         public RotatedCameraFrame(CvCameraViewFrame frame, int rotation) {
             super();
             mFrame = frame;
-            mRgbaRotated = new Mat();
-            mGrayRotated = new Mat();
             mRotation = rotation;
         }
 
         @Override
         public void release() {
-            mRgbaRotated.release();
-            mGrayRotated.release();
+            mFramePool.release(mRgbaRotated);
+            mFramePool.release(mGrayRotated);
+            mRgbaRotated = null;
+            mGrayRotated = null;
         }
 
         public CvCameraViewFrame mFrame;
@@ -478,6 +516,12 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
 
     private void onExitStartedState() {
         disconnectCamera();
+        mFramePool.clear();
+        if (mOutputFrame != null) {
+            mOutputFrame.release();
+            mOutputFrame = null;
+            mOutputBuffer = null;
+        }
         if (mCacheBitmap != null) {
             mCacheBitmap.recycle();
         }
@@ -492,6 +536,7 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     protected void deliverAndDrawFrame(CvCameraViewFrame frame) {
         Mat modified;
 
+        mOutputFrameOwner = null;
         if (mListener != null) {
             modified = mListener.onCameraFrame(frame);
         } else {
@@ -499,7 +544,11 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         }
 
         boolean bmpValid = true;
-        if (modified != null) {
+        if (modified != null && modified == mOutputFrame) {
+            // Already RGBA in the bitmap layout: one bulk copy, no conversion
+            mOutputBuffer.rewind();
+            mCacheBitmap.copyPixelsFromBuffer(mOutputBuffer);
+        } else if (modified != null) {
             try {
                 Utils.matToBitmap(modified, mCacheBitmap);
             } catch(Exception e) {
@@ -517,19 +566,19 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
                 if (BuildConfig.DEBUG)
                     Log.d(TAG, "mStretch value: " + mScale);
 
+                mSrcRect.set(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight());
                 if (mScale != 0) {
-                    canvas.drawBitmap(mCacheBitmap, new Rect(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight()),
-                         new Rect((int)((canvas.getWidth() - mScale*mCacheBitmap.getWidth()) / 2),
+                    mDstRect.set((int)((canvas.getWidth() - mScale*mCacheBitmap.getWidth()) / 2),
                          (int)((canvas.getHeight() - mScale*mCacheBitmap.getHeight()) / 2),
                          (int)((canvas.getWidth() - mScale*mCacheBitmap.getWidth()) / 2 + mScale*mCacheBitmap.getWidth()),
-                         (int)((canvas.getHeight() - mScale*mCacheBitmap.getHeight()) / 2 + mScale*mCacheBitmap.getHeight())), null);
+                         (int)((canvas.getHeight() - mScale*mCacheBitmap.getHeight()) / 2 + mScale*mCacheBitmap.getHeight()));
                 } else {
-                     canvas.drawBitmap(mCacheBitmap, new Rect(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight()),
-                         new Rect((canvas.getWidth() - mCacheBitmap.getWidth()) / 2,
+                    mDstRect.set((canvas.getWidth() - mCacheBitmap.getWidth()) / 2,
                          (canvas.getHeight() - mCacheBitmap.getHeight()) / 2,
                          (canvas.getWidth() - mCacheBitmap.getWidth()) / 2 + mCacheBitmap.getWidth(),
-                         (canvas.getHeight() - mCacheBitmap.getHeight()) / 2 + mCacheBitmap.getHeight()), null);
+                         (canvas.getHeight() - mCacheBitmap.getHeight()) / 2 + mCacheBitmap.getHeight());
                 }
+                canvas.drawBitmap(mCacheBitmap, mSrcRect, mDstRect, null);
 
                 if (mFpsMeter != null) {
                     mFpsMeter.measure();
@@ -559,6 +608,37 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     protected void AllocateCache()
     {
         mCacheBitmap = Bitmap.createBitmap(mFrameWidth, mFrameHeight, Bitmap.Config.ARGB_8888);
+
+        if (mOutputFrame != null)
+            mOutputFrame.release();
+        mOutputFrame = Mat.allocateDirect(mFrameHeight, mFrameWidth, CvType.CV_8UC4);
+        mOutputBuffer = mOutputFrame.asByteBuffer();
+    }
+
+    /**
+     * Returns the RGBA Mat whose memory backs the on-screen bitmap, or null while the
+     * camera is stopped. A listener that renders its output into this Mat and returns it
+     * from onCameraFrame() skips the Utils.matToBitmap() conversion; so does returning
+     * inputFrame.rgba() unchanged, as the camera frames convert into it directly.
+     */
+    public Mat getOutputFrame() {
+        return mOutputFrame;
+    }
+
+    /**
+     * Hands the output Mat to the first producer of the current frame asking for its
+     * shape, and again to that same owner on later calls, or returns null. Frame
+     * implementations use it as their rgba() destination, so that repeated rgba() calls
+     * keep returning one Mat.
+     */
+    protected Mat takeOutputFrame(Object owner, int rows, int cols, int type) {
+        if (mOutputFrame == null || type != CvType.CV_8UC4
+                || rows != mFrameHeight || cols != mFrameWidth)
+            return null;
+        if (mOutputFrameOwner != null && mOutputFrameOwner != owner)
+            return null;
+        mOutputFrameOwner = owner;
+        return mOutputFrame;
     }
 
     public interface ListItemAccessor {
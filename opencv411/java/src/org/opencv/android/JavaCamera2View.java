@@ -348,6 +348,9 @@ public class JavaCamera2View extends CameraBridgeViewBase {
         return true;
     }
 
+    // Planar YUV staging buffer, reused across frames of the same size
+    private byte[] mYuvBytes;
+
     private class JavaCamera2Frame implements CvCameraViewFrame {
         @Override
         public Mat gray() {
@@ -357,7 +360,9 @@ public class JavaCamera2View extends CameraBridgeViewBase {
             assert(planes[0].getPixelStride() == 1);
             ByteBuffer y_plane = planes[0].getBuffer();
             int y_plane_step = planes[0].getRowStride();
-            mGray = new Mat(h, w, CvType.CV_8UC1, y_plane, y_plane_step);
+            // Header over the image plane, no pixel copy
+            if (mGray == null)
+                mGray = new Mat(h, w, CvType.CV_8UC1, y_plane, y_plane_step);
             return mGray;
         }
 
@@ -368,6 +373,12 @@ public class JavaCamera2View extends CameraBridgeViewBase {
             int h = mImage.getHeight();
             int chromaPixelStride = planes[1].getPixelStride();
 
+            Mat rgba = takeOutputFrame(this, h, w, CvType.CV_8UC4);
+            if (rgba == null) {
+                if (mRgba == null)
+                    mRgba = mFramePool.acquire(h, w, CvType.CV_8UC4);
+                rgba = mRgba;
+            }
 
             if (chromaPixelStride == 2) { // Chroma channels are interleaved
                 assert(planes[0].getPixelStride() == 1);
@@ -384,14 +395,19 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                 long addr_diff = uv_mat2.dataAddr() - uv_mat1.dataAddr();
                 if (addr_diff > 0) {
                     assert(addr_diff == 1);
-                    Imgproc.cvtColorTwoPlane(y_mat, uv_mat1, mRgba, Imgproc.COLOR_YUV2RGBA_NV12);
+                    Imgproc.cvtColorTwoPlane(y_mat, uv_mat1, rgba, Imgproc.COLOR_YUV2RGBA_NV12);
                 } else {
                     assert(addr_diff == -1);
-                    Imgproc.cvtColorTwoPlane(y_mat, uv_mat2, mRgba, Imgproc.COLOR_YUV2RGBA_NV21);
+                    Imgproc.cvtColorTwoPlane(y_mat, uv_mat2, rgba, Imgproc.COLOR_YUV2RGBA_NV21);
                 }
-                return mRgba;
+                y_mat.release();
+                uv_mat1.release();
+                uv_mat2.release();
+                return rgba;
             } else { // Chroma channels are not interleaved
-                byte[] yuv_bytes = new byte[w*(h+h/2)];
+                if (mYuvBytes == null || mYuvBytes.length != w*(h+h/2))
+                    mYuvBytes = new byte[w*(h+h/2)];
+                byte[] yuv_bytes = mYuvBytes;
                 ByteBuffer y_plane = planes[0].getBuffer();
                 ByteBuffer u_plane = planes[1].getBuffer();
                 ByteBuffer v_plane = planes[2].getBuffer();
@@ -441,10 +457,11 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                     }
                 }
 
-                Mat yuv_mat = new Mat(h+h/2, w, CvType.CV_8UC1);
+                Mat yuv_mat = mFramePool.acquire(h+h/2, w, CvType.CV_8UC1);
                 yuv_mat.put(0, 0, yuv_bytes);
-                Imgproc.cvtColor(yuv_mat, mRgba, Imgproc.COLOR_YUV2RGBA_I420, 4);
-                return mRgba;
+                Imgproc.cvtColor(yuv_mat, rgba, Imgproc.COLOR_YUV2RGBA_I420, 4);
+                mFramePool.release(yuv_mat);
+                return rgba;
             }
         }
 
@@ -452,14 +469,16 @@ public class JavaCamera2View extends CameraBridgeViewBase {
         public JavaCamera2Frame(Image image) {
             super();
             mImage = image;
-            mRgba = new Mat();
-            mGray = new Mat();
         }
 
         @Override
         public void release() {
-            mRgba.release();
-            mGray.release();
+            mFramePool.release(mRgba);
+            mRgba = null;
+            if (mGray != null) {
+                mGray.release();
+                mGray = null;
+            }
         }
 
         private Image mImage;
@@ -2550,6 +2550,7 @@ public class Core {
     public static void hconcat(List<Mat> src, Mat dst) {
         Mat src_mat = Converters.vector_Mat_to_Mat(src);
         hconcat_0(src_mat.nativeObj, dst.nativeObj);
+        src_mat.release();
     }
 
 
@@ -2578,6 +2579,15 @@ public class Core {
     public static void vconcat(List<Mat> src, Mat dst) {
         Mat src_mat = Converters.vector_Mat_to_Mat(src);
         vconcat_0(src_mat.nativeObj, dst.nativeObj);
+        src_mat.release();
+    }
+
+    /**
+     * vconcat of a vector_Mat already packed into a Mat, as the native wrappers
+     * return it, without the round trip through a List. src is left untouched.
+     */
+    public static void vconcatPacked(Mat src, Mat dst) {
+        vconcat_0(src.nativeObj, dst.nativeObj);
     }
 
 
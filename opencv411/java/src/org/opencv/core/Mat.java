@@ -1,6 +1,8 @@
 package org.opencv.core;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
 // C++: class Mat
 //javadoc: Mat
@@ -8,10 +10,22 @@ public class Mat {
 
     public final long nativeObj;
 
+    // Set when NativeCleaner owns the native object instead of finalize()
+    private Object cleanup;
+
+    // MatTracker record, only while tracking is enabled
+    private Object tracking;
+
+    // Java memory the data was created over, and its address, for
+    // asByteBuffer()
+    private ByteBuffer data;
+    private long dataBase;
+
     public Mat(long addr) {
         if (addr == 0)
             throw new UnsupportedOperationException("Native object address is NULL");
         nativeObj = addr;
+        onCreated();
     }
 
     //
@@ -21,6 +35,7 @@ public class Mat {
     // javadoc: Mat::Mat()
     public Mat() {
         nativeObj = n_Mat();
+        onCreated();
     }
 
     //
@@ -30,6 +45,7 @@ public class Mat {
     // javadoc: Mat::Mat(rows, cols, type)
     public Mat(int rows, int cols, int type) {
         nativeObj = n_Mat(rows, cols, type);
+        onCreated();
     }
 
     //
@@ -39,6 +55,8 @@ public class Mat {
     // javadoc: Mat::Mat(rows, cols, type, data)
     public Mat(int rows, int cols, int type, ByteBuffer data) {
         nativeObj = n_Mat(rows, cols, type, data);
+        onCreated();
+        holdData(data);
     }
 
     //
@@ -48,6 +66,8 @@ public class Mat {
     // javadoc: Mat::Mat(rows, cols, type, data, step)
     public Mat(int rows, int cols, int type, ByteBuffer data, long step) {
         nativeObj = n_Mat(rows, cols, type, data, step);
+        onCreated();
+        holdData(data);
     }
 
     //
@@ -57,6 +77,7 @@ public class Mat {
     // javadoc: Mat::Mat(size, type)
     public Mat(Size size, int type) {
         nativeObj = n_Mat(size.width, size.height, type);
+        onCreated();
     }
 
     //
@@ -66,6 +87,7 @@ public class Mat {
     // javadoc: Mat::Mat(sizes, type)
     public Mat(int[] sizes, int type) {
         nativeObj = n_Mat(sizes.length, sizes, type);
+        onCreated();
     }
 
     //
@@ -75,6 +97,7 @@ public class Mat {
     // javadoc: Mat::Mat(rows, cols, type, s)
     public Mat(int rows, int cols, int type, Scalar s) {
         nativeObj = n_Mat(rows, cols, type, s.val[0], s.val[1], s.val[2], s.val[3]);
+        onCreated();
     }
 
     //
@@ -84,6 +107,7 @@ public class Mat {
     // javadoc: Mat::Mat(size, type, s)
     public Mat(Size size, int type, Scalar s) {
         nativeObj = n_Mat(size.width, size.height, type, s.val[0], s.val[1], s.val[2], s.val[3]);
+        onCreated();
     }
 
     //
@@ -93,6 +117,7 @@ public class Mat {
     // javadoc: Mat::Mat(sizes, type, s)
     public Mat(int[] sizes, int type, Scalar s) {
         nativeObj = n_Mat(sizes.length, sizes, type, s.val[0], s.val[1], s.val[2], s.val[3]);
+        onCreated();
     }
 
     //
@@ -102,11 +127,13 @@ public class Mat {
     // javadoc: Mat::Mat(m, rowRange, colRange)
     public Mat(Mat m, Range rowRange, Range colRange) {
         nativeObj = n_Mat(m.nativeObj, rowRange.start, rowRange.end, colRange.start, colRange.end);
+        onCreated();
     }
 
     // javadoc: Mat::Mat(m, rowRange)
     public Mat(Mat m, Range rowRange) {
         nativeObj = n_Mat(m.nativeObj, rowRange.start, rowRange.end);
+        onCreated();
     }
 
     //
@@ -116,6 +143,7 @@ public class Mat {
     // javadoc: Mat::Mat(m, ranges)
     public Mat(Mat m, Range[] ranges) {
         nativeObj = n_Mat(m.nativeObj, ranges);
+        onCreated();
     }
 
     //
@@ -125,6 +153,7 @@ public class Mat {
     // javadoc: Mat::Mat(m, roi)
     public Mat(Mat m, Rect roi) {
         nativeObj = n_Mat(m.nativeObj, roi.y, roi.y + roi.height, roi.x, roi.x + roi.width);
+        onCreated();
     }
 
     //
@@ -325,6 +354,55 @@ public class Mat {
         return n_dataAddr(nativeObj);
     }
 
+    /**
+     * Continuous Mat whose data lives in a direct buffer allocated by Java
+     * rather than by OpenCV, so that asByteBuffer() can share it.
+     */
+    public static Mat allocateDirect(int rows, int cols, int type) {
+        long size = (long) rows * cols * CvType.ELEM_SIZE(type);
+        if (rows <= 0 || cols <= 0 || size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid direct Mat size: " + rows + "x" + cols);
+        return new Mat(rows, cols, type, ByteBuffer.allocateDirect((int) size));
+    }
+
+    /**
+     * Direct buffer over the data of this continuous Mat, in native byte
+     * order, without copying: writes go straight to the Mat and the buffer
+     * can be handed to Bitmap.copyPixelsFromBuffer(), NIO channels and the
+     * like. Accesses are bounds checked against the size of the data; typed
+     * views come from asFloatBuffer() and the like on the result.
+     *
+     * Only Mats created over a direct ByteBuffer, by allocateDirect() or the
+     * ByteBuffer constructors, have data Java can view; OpenCV allocated
+     * data throws UnsupportedOperationException. The Mat holds that buffer
+     * and every view, including the duplicate(), slice() and typed views
+     * made from it, keeps its memory alive, so no view ever reads freed
+     * memory. Once the Mat is released or reallocated its views no longer
+     * see its data, and asking for a new one throws IllegalStateException.
+     */
+    public ByteBuffer asByteBuffer() {
+        if (data == null)
+            throw new UnsupportedOperationException("Mat data is not in a direct buffer, see Mat.allocateDirect()");
+        if (!isContinuous())
+            throw new UnsupportedOperationException("Mat data is not continuous");
+
+        long addr = dataAddr();
+        long size = total() * elemSize();
+        if (addr != dataBase || size == 0 || size > data.capacity())
+            throw new IllegalStateException("Mat data was released or reallocated");
+
+        ByteBuffer view = data.duplicate();
+        view.clear();
+        view.limit((int) size);
+        return view.slice().order(ByteOrder.nativeOrder());
+    }
+
+    // Keeps the Java memory the data was created over, OpenCV does not
+    private void holdData(ByteBuffer buffer) {
+        data = buffer;
+        dataBase = dataAddr();
+    }
+
     //
     // C++: int Mat::depth()
     //
@@ -754,12 +832,31 @@ public class Mat {
         return new Mat(n_zeros(sizes.length, sizes, type));
     }
 
+    // Still runs when the NativeCleaner owns the native object: overriding
+    // finalize() makes every Mat finalizable, see NativeCleaner
     @Override
     protected void finalize() throws Throwable {
-        n_delete(nativeObj);
+        if (tracking != null)
+            MatTracker.finalized(tracking, MatTracker.bytesOf(this));
+        if (cleanup == null)
+            n_delete(nativeObj);
         super.finalize();
     }
 
+    // Registers a newly created Mat with the open MatScope, the cleaner and the tracker
+    private void onCreated() {
+        MatScope.track(this);
+        tracking = MatTracker.track(this);
+        cleanup = NativeCleaner.register(this, nativeObj, DELETER);
+    }
+
+    private static final NativeCleaner.Deleter DELETER = new NativeCleaner.Deleter() {
+        @Override
+        public void delete(long nativeObj) {
+            n_delete(nativeObj);
+        }
+    };
+
     // javadoc:Mat::toString()
     @Override
     public String toString() {
@@ -965,6 +1062,39 @@ public class Mat {
         throw new UnsupportedOperationException("Mat data type is not compatible: " + t);
     }
 
+    // javadoc:Mat::put(row,col,data,offset,length)
+    public int put(int row, int col, float[] data, int offset, int length) {
+        int t = checkRange(data == null ? -1 : data.length, offset, length);
+        if (CvType.depth(t) == CvType.CV_32F) {
+            if (offset == 0)
+                return nPutF(nativeObj, row, col, length, data);
+            return nPutF(nativeObj, row, col, length, Arrays.copyOfRange(data, offset, offset + length));
+        }
+        throw new UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    // javadoc:Mat::put(row,col,data,offset,length)
+    public int put(int row, int col, int[] data, int offset, int length) {
+        int t = checkRange(data == null ? -1 : data.length, offset, length);
+        if (CvType.depth(t) == CvType.CV_32S) {
+            if (offset == 0)
+                return nPutI(nativeObj, row, col, length, data);
+            return nPutI(nativeObj, row, col, length, Arrays.copyOfRange(data, offset, offset + length));
+        }
+        throw new UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    // javadoc:Mat::put(row,col,data,offset,length)
+    public int put(int row, int col, double[] data, int offset, int length) {
+        int t = checkRange(data == null ? -1 : data.length, offset, length);
+        if (CvType.depth(t) == CvType.CV_64F) {
+            if (offset == 0)
+                return nPutD(nativeObj, row, col, length, data);
+            return nPutD(nativeObj, row, col, length, Arrays.copyOfRange(data, offset, offset + length));
+        }
+        throw new UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
     // javadoc:Mat::get(row,col,data)
     public int get(int row, int col, byte[] data) {
         int t = type();
@@ -1125,6 +1255,63 @@ public class Mat {
         throw new UnsupportedOperationException("Mat data type is not compatible: " + t);
     }
 
+    // javadoc:Mat::get(row,col,data,offset,length)
+    public int get(int row, int col, float[] data, int offset, int length) {
+        int t = checkRange(data == null ? -1 : data.length, offset, length);
+        if (CvType.depth(t) == CvType.CV_32F) {
+            if (offset == 0)
+                return nGetF(nativeObj, row, col, length, data);
+            float[] tmp = Scratch.get().floats(length);
+            int res = nGetF(nativeObj, row, col, length, tmp);
+            System.arraycopy(tmp, 0, data, offset, length);
+            return res;
+        }
+        throw new UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    // javadoc:Mat::get(row,col,data,offset,length)
+    public int get(int row, int col, int[] data, int offset, int length) {
+        int t = checkRange(data == null ? -1 : data.length, offset, length);
+        if (CvType.depth(t) == CvType.CV_32S) {
+            if (offset == 0)
+                return nGetI(nativeObj, row, col, length, data);
+            int[] tmp = Scratch.get().ints(length);
+            int res = nGetI(nativeObj, row, col, length, tmp);
+            System.arraycopy(tmp, 0, data, offset, length);
+            return res;
+        }
+        throw new UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    // javadoc:Mat::get(row,col,data,offset,length)
+    public int get(int row, int col, double[] data, int offset, int length) {
+        int t = checkRange(data == null ? -1 : data.length, offset, length);
+        if (CvType.depth(t) == CvType.CV_64F) {
+            if (offset == 0)
+                return nGetD(nativeObj, row, col, length, data);
+            double[] tmp = Scratch.get().doubles(length);
+            int res = nGetD(nativeObj, row, col, length, tmp);
+            System.arraycopy(tmp, 0, data, offset, length);
+            return res;
+        }
+        throw new UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
+    // Offset variants: the native side always starts at element 0, so other
+    // offsets go through the per-thread scratch arrays
+    private int checkRange(int dataLength, int offset, int length) {
+        int t = type();
+        if (dataLength < 0 || length % CvType.channels(t) != 0)
+            throw new UnsupportedOperationException(
+                    "Provided data element number (" + length +
+                            ") should be multiple of the Mat channels count (" +
+                            CvType.channels(t) + ")");
+        if (offset < 0 || length < 0 || offset + length > dataLength)
+            throw new IndexOutOfBoundsException(
+                    "offset " + offset + " and length " + length + " out of bounds for " + dataLength);
+        return t;
+    }
+
     // javadoc:Mat::get(row,col)
     public double[] get(int row, int col) {
         return nGet(nativeObj, row, col);
@@ -1137,6 +1324,239 @@ public class Mat {
         return nGetIdx(nativeObj, idx);
     }
 
+    //
+    // Allocation-free element access. Values go through a per-thread scratch
+    // array instead of a new array per call, and the usual case is a single
+    // JNI call. The element depth must match the accessor.
+    //
+
+    // javadoc:Mat::getDouble(row,col)
+    public double getDouble(int row, int col) {
+        return getDouble(row, col, 0);
+    }
+
+    // javadoc:Mat::getDouble(row,col,channel)
+    public double getDouble(int row, int col, int channel) {
+        double[] tmp = Scratch.get().doubles(checkChannel(channel) + 1);
+        if (nGetD(nativeObj, row, col, channel + 1, tmp) == 0)
+            throw accessError(CvType.CV_64F, row, col);
+        return tmp[channel];
+    }
+
+    // javadoc:Mat::getFloat(row,col)
+    public float getFloat(int row, int col) {
+        return getFloat(row, col, 0);
+    }
+
+    // javadoc:Mat::getFloat(row,col,channel)
+    public float getFloat(int row, int col, int channel) {
+        float[] tmp = Scratch.get().floats(checkChannel(channel) + 1);
+        if (nGetF(nativeObj, row, col, channel + 1, tmp) == 0)
+            throw accessError(CvType.CV_32F, row, col);
+        return tmp[channel];
+    }
+
+    // javadoc:Mat::getInt(row,col)
+    public int getInt(int row, int col) {
+        return getInt(row, col, 0);
+    }
+
+    // javadoc:Mat::getInt(row,col,channel)
+    public int getInt(int row, int col, int channel) {
+        int[] tmp = Scratch.get().ints(checkChannel(channel) + 1);
+        if (nGetI(nativeObj, row, col, channel + 1, tmp) == 0)
+            throw accessError(CvType.CV_32S, row, col);
+        return tmp[channel];
+    }
+
+    // javadoc:Mat::getShort(row,col,channel)
+    public short getShort(int row, int col, int channel) {
+        short[] tmp = Scratch.get().shorts(checkChannel(channel) + 1);
+        if (nGetS(nativeObj, row, col, channel + 1, tmp) == 0)
+            throw accessError(CvType.CV_16S, row, col);
+        return tmp[channel];
+    }
+
+    // javadoc:Mat::getByte(row,col,channel)
+    public byte getByte(int row, int col, int channel) {
+        byte[] tmp = Scratch.get().bytes(checkChannel(channel) + 1);
+        if (nGetB(nativeObj, row, col, channel + 1, tmp) == 0)
+            throw accessError(CvType.CV_8U, row, col);
+        return tmp[channel];
+    }
+
+    /**
+     * Copies every element of this Mat, row by row, into dst from offset,
+     * widening CV_32F and CV_32S data. Meant for small Mats such as rvec,
+     * tvec or camera matrices; returns the number of values copied.
+     */
+    public int getDoubles(double[] dst, int offset) {
+        int t = type();
+        int length = checkBulk(t, dst.length, offset);
+        if (length == 0)
+            return 0;
+
+        Scratch scratch = Scratch.get();
+        switch (CvType.depth(t)) {
+        case CvType.CV_64F:
+            if (offset == 0) {
+                nGetD(nativeObj, 0, 0, length, dst);
+            } else {
+                double[] tmp = scratch.doubles(length);
+                nGetD(nativeObj, 0, 0, length, tmp);
+                System.arraycopy(tmp, 0, dst, offset, length);
+            }
+            break;
+        case CvType.CV_32F: {
+            float[] tmp = scratch.floats(length);
+            nGetF(nativeObj, 0, 0, length, tmp);
+            for (int i = 0; i < length; i++)
+                dst[offset + i] = tmp[i];
+            break;
+        }
+        case CvType.CV_32S: {
+            int[] tmp = scratch.ints(length);
+            nGetI(nativeObj, 0, 0, length, tmp);
+            for (int i = 0; i < length; i++)
+                dst[offset + i] = tmp[i];
+            break;
+        }
+        default:
+            throw new UnsupportedOperationException("Mat data type is not compatible: " + t);
+        }
+        return length;
+    }
+
+    /**
+     * Float variant of getDoubles, narrowing CV_64F and converting CV_32S data.
+     */
+    public int getFloats(float[] dst, int offset) {
+        int t = type();
+        int length = checkBulk(t, dst.length, offset);
+        if (length == 0)
+            return 0;
+
+        Scratch scratch = Scratch.get();
+        switch (CvType.depth(t)) {
+        case CvType.CV_32F:
+            if (offset == 0) {
+                nGetF(nativeObj, 0, 0, length, dst);
+            } else {
+                float[] tmp = scratch.floats(length);
+                nGetF(nativeObj, 0, 0, length, tmp);
+                System.arraycopy(tmp, 0, dst, offset, length);
+            }
+            break;
+        case CvType.CV_64F: {
+            double[] tmp = scratch.doubles(length);
+            nGetD(nativeObj, 0, 0, length, tmp);
+            for (int i = 0; i < length; i++)
+                dst[offset + i] = (float) tmp[i];
+            break;
+        }
+        case CvType.CV_32S: {
+            int[] tmp = scratch.ints(length);
+            nGetI(nativeObj, 0, 0, length, tmp);
+            for (int i = 0; i < length; i++)
+                dst[offset + i] = tmp[i];
+            break;
+        }
+        default:
+            throw new UnsupportedOperationException("Mat data type is not compatible: " + t);
+        }
+        return length;
+    }
+
+    // Channel 0 always exists, others cost one extra call to validate
+    private int checkChannel(int channel) {
+        if (channel < 0 || (channel > 0 && channel >= channels()))
+            throw new IndexOutOfBoundsException("Channel " + channel + " out of range");
+        return channel;
+    }
+
+    private int checkBulk(int t, int dataLength, int offset) {
+        long length = total() * CvType.channels(t);
+        if (offset < 0 || length > dataLength - offset)
+            throw new IndexOutOfBoundsException(
+                    "offset " + offset + " and length " + length + " out of bounds for " + dataLength);
+        return (int) length;
+    }
+
+    private RuntimeException accessError(int depth, int row, int col) {
+        int t = type();
+        if (CvType.depth(t) != depth)
+            return new UnsupportedOperationException("Mat data type is not compatible: " + t);
+        return new IndexOutOfBoundsException("Element (" + row + ", " + col + ") out of range for " + rows() + "*" + cols());
+    }
+
+    // Per-thread staging arrays for the accessors above; arrays larger than
+    // MAX_CACHED elements are not kept so big reads do not pin memory
+    private static final class Scratch {
+        private static final int MAX_CACHED = 4096;
+
+        private static final ThreadLocal<Scratch> local = new ThreadLocal<Scratch>() {
+            @Override
+            protected Scratch initialValue() {
+                return new Scratch();
+            }
+        };
+
+        private byte[] b = new byte[4];
+        private short[] s = new short[4];
+        private int[] i = new int[16];
+        private float[] f = new float[16];
+        private double[] d = new double[16];
+
+        static Scratch get() {
+            return local.get();
+        }
+
+        byte[] bytes(int n) {
+            if (b.length >= n)
+                return b;
+            byte[] a = new byte[n];
+            if (n <= MAX_CACHED)
+                b = a;
+            return a;
+        }
+
+        short[] shorts(int n) {
+            if (s.length >= n)
+                return s;
+            short[] a = new short[n];
+            if (n <= MAX_CACHED)
+                s = a;
+            return a;
+        }
+
+        int[] ints(int n) {
+            if (i.length >= n)
+                return i;
+            int[] a = new int[n];
+            if (n <= MAX_CACHED)
+                i = a;
+            return a;
+        }
+
+        float[] floats(int n) {
+            if (f.length >= n)
+                return f;
+            float[] a = new float[n];
+            if (n <= MAX_CACHED)
+                f = a;
+            return a;
+        }
+
+        double[] doubles(int n) {
+            if (d.length >= n)
+                return d;
+            double[] a = new double[n];
+            if (n <= MAX_CACHED)
+                d = a;
+            return a;
+        }
+    }
+
     // javadoc:Mat::height()
     public int height() {
         return rows();
@@ -60,6 +60,38 @@ public class MatOfInt extends Mat {
         return a;
     }
 
+    /**
+     * Fills the Mat from length ints of a starting at offset, so callers
+     * can reuse one array across frames.
+     */
+    public void fromArray(int[] a, int offset, int length) {
+        if (length % _channels != 0)
+            throw new IllegalArgumentException("length " + length + " is not a multiple of " + _channels);
+        int num = length / _channels;
+        if (num == 0) {
+            release();
+            return;
+        }
+        alloc(num);
+        put(0, 0, a, offset, length); //TODO: check ret val!
+    }
+
+    /**
+     * Copies the elements into a, which must hold at least
+     * total() ints. Returns the number of elements.
+     */
+    public int toArray(int[] a) {
+        int num = checkVector(_channels, _depth);
+        if (num < 0)
+            throw new RuntimeException("Native Mat has unexpected type or size: " + toString());
+        if (num == 0)
+            return 0;
+        if (a.length < num * _channels)
+            throw new IndexOutOfBoundsException("Array too small for " + num + " elements");
+        get(0, 0, a, 0, num * _channels); //TODO: check ret val!
+        return num;
+    }
+
     public void fromList(List<Integer> lb) {
         if(lb==null || lb.size()==0)
             return;
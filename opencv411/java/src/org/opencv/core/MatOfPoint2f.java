@@ -66,6 +66,38 @@ public class MatOfPoint2f extends Mat {
         return ap;
     }
 
+    /**
+     * Fills the Mat from length floats of a starting at offset (2 per
+     * element), so callers can reuse one array across frames.
+     */
+    public void fromArray(float[] a, int offset, int length) {
+        if (length % _channels != 0)
+            throw new IllegalArgumentException("length " + length + " is not a multiple of " + _channels);
+        int num = length / _channels;
+        if (num == 0) {
+            release();
+            return;
+        }
+        alloc(num);
+        put(0, 0, a, offset, length); //TODO: check ret val!
+    }
+
+    /**
+     * Copies the elements into a, which must hold at least
+     * total() * 2 floats. Returns the number of elements.
+     */
+    public int toArray(float[] a) {
+        int num = checkVector(_channels, _depth);
+        if (num < 0)
+            throw new RuntimeException("Native Mat has unexpected type or size: " + toString());
+        if (num == 0)
+            return 0;
+        if (a.length < num * _channels)
+            throw new IndexOutOfBoundsException("Array too small for " + num + " elements");
+        get(0, 0, a, 0, num * _channels); //TODO: check ret val!
+        return num;
+    }
+
     public void fromList(List<Point> lp) {
         Point ap[] = lp.toArray(new Point[0]);
         fromArray(ap);
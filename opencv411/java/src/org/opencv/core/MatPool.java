@@ -0,0 +1,161 @@
+package org.opencv.core;
+
+import java.util.ArrayList;
+
+/**
+ * Bounded pool of preallocated Mats keyed by (rows, cols, type), for
+ * frame-sized buffers that would otherwise be allocated and dropped on
+ * every frame.
+ *
+ * acquire() hands out a free Mat of the requested shape or allocates one,
+ * release() gives it back. At most maxFreePerShape idle Mats are kept per
+ * shape and at most MAX_SHAPES shapes, extra ones are released right away.
+ * Lookups scan a short list of shapes, so a steady state allocates nothing,
+ * neither native nor Java.
+ * All methods are thread-safe.
+ */
+public class MatPool {
+
+    // Shapes beyond this many are not pooled
+    public static final int MAX_SHAPES = 16;
+
+    private final int maxFreePerShape;
+    private final ArrayList<Bucket> buckets = new ArrayList<Bucket>();
+
+    private int outstanding;
+    private int highWaterMark;
+    private long acquired;
+    private long allocated;
+
+    public MatPool(int maxFreePerShape) {
+        if (maxFreePerShape < 1)
+            throw new IllegalArgumentException("maxFreePerShape must be positive: " + maxFreePerShape);
+        this.maxFreePerShape = maxFreePerShape;
+    }
+
+    public synchronized Mat acquire(int rows, int cols, int type) {
+        acquired++;
+        outstanding++;
+        highWaterMark = Math.max(highWaterMark, outstanding);
+
+        Bucket bucket = find(rows, cols, type);
+        if (bucket != null && bucket.count > 0) {
+            Mat mat = bucket.free[--bucket.count];
+            bucket.free[bucket.count] = null;
+            return mat;
+        }
+
+        allocated++;
+        return new Mat(rows, cols, type);
+    }
+
+    public Mat acquire(Size size, int type) {
+        return acquire((int) size.height, (int) size.width, type);
+    }
+
+    /**
+     * Returns a Mat to the pool under its current shape, which may differ
+     * from the acquired one if it was reallocated meanwhile.
+     */
+    public synchronized void release(Mat mat) {
+        if (mat == null)
+            return;
+        outstanding--;
+
+        int rows = mat.rows(), cols = mat.cols(), type = mat.type();
+        if (mat.empty() || mat.dims() > 2 || mat.isSubmatrix()) {
+            mat.release();
+            return;
+        }
+
+        Bucket bucket = find(rows, cols, type);
+        if (bucket == null) {
+            if (buckets.size() == MAX_SHAPES) {
+                mat.release();
+                return;
+            }
+            bucket = new Bucket(rows, cols, type, maxFreePerShape);
+            buckets.add(bucket);
+        }
+
+        if (bucket.count < bucket.free.length)
+            bucket.free[bucket.count++] = mat;
+        else
+            mat.release();
+    }
+
+    /**
+     * Releases every idle Mat. Mats currently acquired are not affected.
+     */
+    public synchronized void clear() {
+        for (Bucket bucket : buckets) {
+            for (int i = 0; i < bucket.count; i++) {
+                bucket.free[i].release();
+                bucket.free[i] = null;
+            }
+            bucket.count = 0;
+        }
+        buckets.clear();
+    }
+
+    /**
+     * Mats acquired and not released yet.
+     */
+    public synchronized int getOutstanding() {
+        return outstanding;
+    }
+
+    /**
+     * Largest number of Mats acquired at the same time.
+     */
+    public synchronized int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public synchronized int getFreeCount() {
+        int free = 0;
+        for (Bucket bucket : buckets)
+            free += bucket.count;
+        return free;
+    }
+
+    public synchronized long getAcquireCount() {
+        return acquired;
+    }
+
+    /**
+     * Acquisitions that had to allocate a new Mat.
+     */
+    public synchronized long getAllocationCount() {
+        return allocated;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MatPool [ outstanding=" + outstanding + ", highWaterMark=" + highWaterMark
+                + ", free=" + getFreeCount() + ", acquired=" + acquired + ", allocated=" + allocated + " ]";
+    }
+
+    private Bucket find(int rows, int cols, int type) {
+        for (int i = 0; i < buckets.size(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket.rows == rows && bucket.cols == cols && bucket.type == type)
+                return bucket;
+        }
+        return null;
+    }
+
+    private static final class Bucket {
+        final int rows, cols, type;
+        final Mat[] free;
+        int count;
+
+        Bucket(int rows, int cols, int type, int capacity) {
+            this.rows = rows;
+            this.cols = cols;
+            this.type = type;
+            free = new Mat[capacity];
+        }
+    }
+
+}
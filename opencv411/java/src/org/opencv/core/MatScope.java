@@ -0,0 +1,112 @@
+package org.opencv.core;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Releases every Mat created on the current thread while the scope is open,
+ * including Mats allocated inside wrapper methods, when the scope is closed.
+ *
+ * <pre>
+ * try (MatScope scope = MatScope.open()) {
+ *     Mat tmp = new Mat();
+ *     ...
+ *     result = scope.keep(tmp);
+ * }
+ * </pre>
+ *
+ * Scopes nest per thread and must be closed in reverse order of opening.
+ * Mats that have to outlive the scope are passed to keep(), which hands them
+ * to the enclosing scope if there is one. Closing calls release(), so the
+ * pixel data goes right away; the small native header is still freed by
+ * finalize() or the NativeCleaner.
+ */
+public final class MatScope implements AutoCloseable {
+
+    private static final ThreadLocal<MatScope> current = new ThreadLocal<MatScope>();
+
+    // Lets Mat construction skip the thread-local lookup while no scope is open
+    private static final AtomicInteger openScopes = new AtomicInteger();
+
+    private final MatScope parent;
+    private final ArrayList<Mat> mats = new ArrayList<Mat>();
+    private boolean closed;
+
+    private MatScope(MatScope parent) {
+        this.parent = parent;
+    }
+
+    public static MatScope open() {
+        MatScope scope = new MatScope(current.get());
+        current.set(scope);
+        openScopes.incrementAndGet();
+        return scope;
+    }
+
+    /**
+     * Innermost open scope of the calling thread, or null.
+     */
+    public static MatScope current() {
+        return openScopes.get() > 0 ? current.get() : null;
+    }
+
+    /**
+     * Adds a Mat created outside the scope so that it is released with it.
+     */
+    public <T extends Mat> T add(T mat) {
+        if (closed)
+            throw new IllegalStateException("MatScope is closed");
+        mats.add(mat);
+        return mat;
+    }
+
+    /**
+     * Removes a Mat from this scope so that closing it leaves the Mat alive.
+     * With an enclosing scope the Mat moves there instead.
+     */
+    public <T extends Mat> T keep(T mat) {
+        for (int i = mats.size() - 1; i >= 0; i--) {
+            if (mats.get(i) == mat) {
+                mats.remove(i);
+                break;
+            }
+        }
+        if (parent != null)
+            parent.mats.add(mat);
+        return mat;
+    }
+
+    /**
+     * Number of Mats currently tracked.
+     */
+    public int size() {
+        return mats.size();
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        if (current.get() != this)
+            throw new IllegalStateException("MatScope closed out of order or from another thread");
+
+        closed = true;
+        current.set(parent);
+        openScopes.decrementAndGet();
+
+        for (int i = mats.size() - 1; i >= 0; i--)
+            mats.get(i).release();
+        mats.clear();
+    }
+
+    // Called from every Mat constructor
+    static void track(Mat mat) {
+        if (openScopes.get() == 0)
+            return;
+
+        MatScope scope = current.get();
+        if (scope != null)
+            scope.mats.add(mat);
+    }
+
+}
@@ -0,0 +1,339 @@
+package org.opencv.core;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Opt-in bookkeeping of live native Mats, for hunting native memory leaks.
+ *
+ * While enabled, every new Mat gets a record with its allocation order,
+ * creation time and, for one allocation out of getSampleInterval(), the
+ * first call site outside org.opencv. Sizes are measured when a report is
+ * built, so Mats filled by native code are counted correctly. A Mat that
+ * reaches finalize() still holding data was never released and is counted
+ * as a leak of its site.
+ *
+ * Disabled, a Mat constructor only reads one volatile flag.
+ */
+public final class MatTracker {
+
+    public static final String UNSAMPLED = "(unsampled)";
+
+    public interface Listener {
+        void onDump(String report);
+    }
+
+    /**
+     * Aggregate of the Mats allocated at one call site.
+     */
+    public static final class Site {
+        public final String location;
+        public final int count;
+        public final long bytes;
+        public final long oldestAgeMillis;
+
+        Site(String location, int count, long bytes, long oldestAgeMillis) {
+            this.location = location;
+            this.count = count;
+            this.bytes = bytes;
+            this.oldestAgeMillis = oldestAgeMillis;
+        }
+
+        @Override
+        public String toString() {
+            return location + ": " + count + " mats, " + bytes + " bytes, oldest " + oldestAgeMillis + " ms";
+        }
+    }
+
+    private static volatile boolean enabled;
+    private static volatile int sampleInterval = 16;
+
+    private static final Object lock = new Object();
+    private static final HashSet<Record> live = new HashSet<Record>();
+    private static final HashMap<String, long[]> leaks = new HashMap<String, long[]>();
+    private static long sequence;
+    private static long leakCount;
+    private static long leakBytes;
+
+    private static Timer timer;
+
+    private MatTracker() {
+    }
+
+    /**
+     * Starts or stops recording. Mats created while disabled are never
+     * tracked.
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records the call site of one allocation out of interval: 1 samples
+     * every allocation, 0 none.
+     */
+    public static void setSampleInterval(int interval) {
+        if (interval < 0)
+            throw new IllegalArgumentException("Negative sample interval: " + interval);
+        sampleInterval = interval;
+    }
+
+    public static int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    public static int getLiveCount() {
+        synchronized (lock) {
+            return live.size();
+        }
+    }
+
+    /**
+     * Bytes of pixel data held by the tracked Mats still alive.
+     */
+    public static long getLiveBytes() {
+        long bytes = 0;
+        synchronized (lock) {
+            for (Record record : live)
+                bytes += record.measure();
+        }
+        return bytes;
+    }
+
+    /**
+     * Number of tracked allocations so far.
+     */
+    public static long getAllocationCount() {
+        synchronized (lock) {
+            return sequence;
+        }
+    }
+
+    /**
+     * Mats that reached finalize() without release(), and the bytes they held.
+     */
+    public static long getLeakCount() {
+        synchronized (lock) {
+            return leakCount;
+        }
+    }
+
+    public static long getLeakBytes() {
+        synchronized (lock) {
+            return leakBytes;
+        }
+    }
+
+    /**
+     * Live Mats grouped by call site, largest first.
+     */
+    public static List<Site> getTopSites(int max) {
+        return collect(0, false, max);
+    }
+
+    /**
+     * Marks the current point in the allocation sequence for leakedSince().
+     */
+    public static long checkpoint() {
+        synchronized (lock) {
+            return sequence;
+        }
+    }
+
+    /**
+     * Mats allocated after the checkpoint that are still alive and hold
+     * data, grouped by call site, largest first.
+     */
+    public static List<Site> leakedSince(long checkpoint, int max) {
+        return collect(checkpoint, true, max);
+    }
+
+    /**
+     * Sites whose Mats were reclaimed by finalize() instead of release().
+     */
+    public static List<Site> getFinalizedLeaks(int max) {
+        List<Site> sites = new ArrayList<Site>();
+        synchronized (lock) {
+            for (Map.Entry<String, long[]> entry : leaks.entrySet())
+                sites.add(new Site(entry.getKey(), (int) entry.getValue()[0], entry.getValue()[1], 0));
+        }
+        return sortAndTrim(sites, max);
+    }
+
+    public static String dump() {
+        StringBuilder report = new StringBuilder();
+        long bytes = getLiveBytes();
+        report.append("Mats: ").append(getLiveCount()).append(" live, ")
+              .append(bytes).append(" bytes, ")
+              .append(getAllocationCount()).append(" allocated, ")
+              .append(getLeakCount()).append(" finalized unreleased (")
+              .append(getLeakBytes()).append(" bytes)");
+
+        for (Site site : getTopSites(10))
+            report.append("\n  live ").append(site);
+        for (Site site : getFinalizedLeaks(10))
+            report.append("\n  leak ").append(site.location).append(": ")
+                  .append(site.count).append(" mats, ").append(site.bytes).append(" bytes");
+        return report.toString();
+    }
+
+    /**
+     * Sends dump() to the listener every periodMillis from a daemon thread,
+     * replacing any previous periodic dump.
+     */
+    public static void startPeriodicDump(long periodMillis, final Listener listener) {
+        synchronized (lock) {
+            stopPeriodicDump();
+            timer = new Timer("OpenCV MatTracker", true);
+            timer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    listener.onDump(dump());
+                }
+            }, periodMillis, periodMillis);
+        }
+    }
+
+    public static void stopPeriodicDump() {
+        synchronized (lock) {
+            if (timer != null) {
+                timer.cancel();
+                timer = null;
+            }
+        }
+    }
+
+    /**
+     * Forgets every record and leak counter.
+     */
+    public static void reset() {
+        synchronized (lock) {
+            live.clear();
+            leaks.clear();
+            leakCount = 0;
+            leakBytes = 0;
+        }
+    }
+
+    // Called from the Mat constructors, returns the record or null
+    static Object track(Mat mat) {
+        if (!enabled)
+            return null;
+
+        long order;
+        synchronized (lock) {
+            order = ++sequence;
+        }
+        int interval = sampleInterval;
+        boolean sample = interval > 0 && order % interval == 0;
+
+        Record record = new Record(mat, order, sample ? callSite() : UNSAMPLED);
+        synchronized (lock) {
+            live.add(record);
+        }
+        return record;
+    }
+
+    // Called from Mat.finalize() with the data still held
+    static void finalized(Object tracked, long bytes) {
+        Record record = (Record) tracked;
+        synchronized (lock) {
+            if (!live.remove(record) || bytes == 0)
+                return;
+
+            leakCount++;
+            leakBytes += bytes;
+            long[] site = leaks.get(record.site);
+            if (site == null)
+                leaks.put(record.site, site = new long[2]);
+            site[0]++;
+            site[1] += bytes;
+        }
+    }
+
+    static long bytesOf(Mat mat) {
+        return mat.isSubmatrix() ? 0 : mat.total() * mat.elemSize();
+    }
+
+    private static List<Site> collect(long after, boolean holdingOnly, int max) {
+        long now = System.nanoTime();
+        HashMap<String, long[]> sites = new HashMap<String, long[]>();
+        synchronized (lock) {
+            for (Record record : live) {
+                if (record.order <= after)
+                    continue;
+
+                long bytes = record.measure();
+                if (holdingOnly && bytes == 0)
+                    continue;
+
+                long[] site = sites.get(record.site);
+                if (site == null)
+                    sites.put(record.site, site = new long[3]);
+                site[0]++;
+                site[1] += bytes;
+                site[2] = Math.max(site[2], now - record.created);
+            }
+        }
+
+        List<Site> result = new ArrayList<Site>(sites.size());
+        for (Map.Entry<String, long[]> entry : sites.entrySet()) {
+            long[] site = entry.getValue();
+            result.add(new Site(entry.getKey(), (int) site[0], site[1], site[2] / 1000000));
+        }
+        return sortAndTrim(result, max);
+    }
+
+    private static List<Site> sortAndTrim(List<Site> sites, int max) {
+        Collections.sort(sites, new Comparator<Site>() {
+            @Override
+            public int compare(Site a, Site b) {
+                return a.bytes != b.bytes ? (a.bytes < b.bytes ? 1 : -1) : b.count - a.count;
+            }
+        });
+        return sites.size() > max ? new ArrayList<Site>(sites.subList(0, max)) : sites;
+    }
+
+    private static String callSite() {
+        StackTraceElement[] stack = new Throwable().getStackTrace();
+        for (StackTraceElement element : stack) {
+            if (!element.getClassName().startsWith("org.opencv."))
+                return element.toString();
+        }
+        return stack.length > 0 ? stack[stack.length - 1].toString() : UNSAMPLED;
+    }
+
+    private static final class Record extends WeakReference<Mat> {
+        final long order;
+        final long created = System.nanoTime();
+        final String site;
+        long bytes;
+
+        Record(Mat mat, long order, String site) {
+            super(mat);
+            this.order = order;
+            this.site = site;
+        }
+
+        // Current size, or the last one seen once the Mat awaits finalization
+        long measure() {
+            Mat mat = get();
+            if (mat != null)
+                bytes = bytesOf(mat);
+            return bytes;
+        }
+    }
+
+}
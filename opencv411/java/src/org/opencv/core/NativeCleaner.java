@@ -0,0 +1,130 @@
+package org.opencv.core;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+
+/**
+ * Optional replacement for finalize() when freeing native objects.
+ *
+ * Works like java.lang.ref.Cleaner, which Android only ships from API 33:
+ * a phantom reference per object and one daemon thread that deletes the
+ * native object once its Java owner is unreachable. Disabled by default;
+ * objects created while enabled are freed by the cleaner and their
+ * finalize() becomes a no-op, objects created before keep using finalize().
+ *
+ * Limitation: Mat still overrides finalize(), which it needs for objects
+ * created while the cleaner is off and for MatTracker and buffer views. The
+ * runtime therefore still registers every Mat as finalizable and runs the
+ * (empty) finalize() on the finalizer thread before the memory can be
+ * reclaimed; the cleaner only moves the native delete off that thread and
+ * out of finalizer order. Releasing Mats explicitly, or through MatScope,
+ * is the only way to skip the finalizer cost.
+ */
+public final class NativeCleaner {
+
+    public interface Deleter {
+        void delete(long nativeObj);
+    }
+
+    private static volatile boolean enabled;
+
+    private static final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+    private static final Object lock = new Object();
+
+    // Registered references, linked so that they stay reachable until cleaned
+    private static Cleanup head;
+    private static int pending;
+    private static Thread thread;
+
+    private NativeCleaner() {
+    }
+
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Number of registered native objects not freed yet.
+     */
+    public static int getPendingCount() {
+        synchronized (lock) {
+            return pending;
+        }
+    }
+
+    /**
+     * Registers nativeObj to be deleted once owner becomes unreachable.
+     * Returns the registration, or null when the cleaner is disabled and the
+     * owner has to free the object itself.
+     */
+    public static Object register(Object owner, long nativeObj, Deleter deleter) {
+        if (!enabled)
+            return null;
+
+        Cleanup cleanup = new Cleanup(owner, nativeObj, deleter);
+        synchronized (lock) {
+            cleanup.next = head;
+            if (head != null)
+                head.prev = cleanup;
+            head = cleanup;
+            pending++;
+
+            if (thread == null) {
+                thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        drain();
+                    }
+                }, "OpenCV NativeCleaner");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+        return cleanup;
+    }
+
+    private static void drain() {
+        while (true) {
+            Cleanup cleanup;
+            try {
+                cleanup = (Cleanup) queue.remove();
+            } catch (InterruptedException e) {
+                continue;
+            }
+
+            synchronized (lock) {
+                if (cleanup.prev != null)
+                    cleanup.prev.next = cleanup.next;
+                else
+                    head = cleanup.next;
+                if (cleanup.next != null)
+                    cleanup.next.prev = cleanup.prev;
+                cleanup.prev = cleanup.next = null;
+                pending--;
+            }
+
+            try {
+                cleanup.deleter.delete(cleanup.nativeObj);
+            } catch (Throwable t) {
+                // Keep the thread alive for the remaining objects
+            }
+        }
+    }
+
+    private static final class Cleanup extends PhantomReference<Object> {
+        final long nativeObj;
+        final Deleter deleter;
+        Cleanup prev, next;
+
+        Cleanup(Object owner, long nativeObj, Deleter deleter) {
+            super(owner, queue);
+            this.nativeObj = nativeObj;
+            this.deleter = deleter;
+        }
+    }
+
+}
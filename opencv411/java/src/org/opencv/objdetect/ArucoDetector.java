@@ -6,6 +6,7 @@ package org.opencv.objdetect;
 import java.util.ArrayList;
 import java.util.List;
 import org.opencv.core.Algorithm;
+import org.opencv.core.Core;
 import org.opencv.core.Mat;
 import org.opencv.objdetect.Board;
 import org.opencv.objdetect.DetectorParameters;
@@ -135,6 +136,35 @@ public class ArucoDetector extends Algorithm {
     }
 
 
+    /**
+     * Basic marker detection, returning all corners packed into one Mat.
+     *
+     * @param image input image
+     * @param corners output N x 4 CV_32FC2 Mat, row i holding the four corners of marker ids[i]
+     * in the same order as the List variant, so a whole frame is read back with one get().
+     * Released when no marker is found.
+     * @param ids vector of identifiers of the detected markers.
+     */
+    public void detectMarkers(Mat image, Mat corners, Mat ids) {
+        Mat corners_mat = new Mat();
+        detectMarkers_1(nativeObj, image.nativeObj, corners_mat.nativeObj, ids.nativeObj);
+        if (corners_mat.rows() == 0) {
+            corners_mat.release();
+            corners.release();
+            return;
+        }
+        Core.vconcatPacked(corners_mat, corners);
+
+        // The packed markers are native Mats handed over to Java, only their
+        // wrappers free them
+        List<Mat> markers = new ArrayList<Mat>(corners_mat.rows());
+        Converters.Mat_to_vector_Mat(corners_mat, markers);
+        corners_mat.release();
+        for (Mat marker : markers)
+            marker.release();
+    }
+
+
     //
     // C++:  void cv::aruco::ArucoDetector::refineDetectedMarkers(Mat image, Board board, vector_Mat& detectedCorners, Mat& detectedIds, vector_Mat& rejectedCorners, Mat cameraMatrix = Mat(), Mat distCoeffs = Mat(), Mat& recoveredIdxs = Mat())
     //
@@ -1,8 +1,11 @@
 package org.opencv.utils;
 
+import java.nio.BufferOverflowException;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfByte;
@@ -803,4 +806,230 @@ public class Converters {
             rs.add(new RotatedRect(new Point(buff[5 * i], buff[5 * i + 1]), new Size(buff[5 * i + 2], buff[5 * i + 3]), buff[5 * i + 4]));
         }
     }
+
+    // Primitive array variants: no Point/boxed objects, caller-owned arrays
+    // that can be reused across frames. Lengths are in array elements
+    // (e.g. 2 per Point2f), destination Mats are (re)created as N x 1.
+
+    public static void array_Point2f_to_Mat(float[] xy, int offset, int length, Mat m) {
+        array_to_Mat(xy, offset, length, CvType.CV_32FC2, m);
+    }
+
+    public static void array_Point3f_to_Mat(float[] xyz, int offset, int length, Mat m) {
+        array_to_Mat(xyz, offset, length, CvType.CV_32FC3, m);
+    }
+
+    public static void array_float_to_Mat(float[] fs, int offset, int length, Mat m) {
+        array_to_Mat(fs, offset, length, CvType.CV_32FC1, m);
+    }
+
+    public static void array_Point2d_to_Mat(double[] xy, int offset, int length, Mat m) {
+        array_to_Mat(xy, offset, length, CvType.CV_64FC2, m);
+    }
+
+    public static void array_Point3d_to_Mat(double[] xyz, int offset, int length, Mat m) {
+        array_to_Mat(xyz, offset, length, CvType.CV_64FC3, m);
+    }
+
+    public static void array_double_to_Mat(double[] ds, int offset, int length, Mat m) {
+        array_to_Mat(ds, offset, length, CvType.CV_64FC1, m);
+    }
+
+    public static void array_int_to_Mat(int[] is, int offset, int length, Mat m) {
+        array_to_Mat(is, offset, length, CvType.CV_32SC1, m);
+    }
+
+    /**
+     * Copies the points of m into xy from offset; returns the point count.
+     */
+    public static int Mat_to_array_Point2f(Mat m, float[] xy, int offset) {
+        return Mat_to_array(m, 2, CvType.CV_32F, xy, offset);
+    }
+
+    public static int Mat_to_array_Point3f(Mat m, float[] xyz, int offset) {
+        return Mat_to_array(m, 3, CvType.CV_32F, xyz, offset);
+    }
+
+    public static int Mat_to_array_float(Mat m, float[] fs, int offset) {
+        return Mat_to_array(m, 1, CvType.CV_32F, fs, offset);
+    }
+
+    public static int Mat_to_array_Point2d(Mat m, double[] xy, int offset) {
+        return Mat_to_array(m, 2, CvType.CV_64F, xy, offset);
+    }
+
+    public static int Mat_to_array_Point3d(Mat m, double[] xyz, int offset) {
+        return Mat_to_array(m, 3, CvType.CV_64F, xyz, offset);
+    }
+
+    public static int Mat_to_array_double(Mat m, double[] ds, int offset) {
+        return Mat_to_array(m, 1, CvType.CV_64F, ds, offset);
+    }
+
+    public static int Mat_to_array_int(Mat m, int[] is, int offset) {
+        return Mat_to_array(m, 1, CvType.CV_32S, is, offset);
+    }
+
+    // Per-thread staging for direct buffers, copied through in chunks so
+    // no array is allocated per call
+    private static final int STAGING_FLOATS = 4096;
+
+    private static final ThreadLocal<float[]> staging = new ThreadLocal<float[]>() {
+        @Override
+        protected float[] initialValue() {
+            return new float[STAGING_FLOATS];
+        }
+    };
+
+    /**
+     * Fills m (N x 1, CV_32F with the given channel count) from the
+     * remaining floats of buf; the buffer position is not changed.
+     * Array-backed buffers are read in place, direct ones through a
+     * per-thread staging array.
+     */
+    public static void buffer_to_Mat(FloatBuffer buf, int channels, Mat m) {
+        int length = buf.remaining();
+        if (buf.hasArray()) {
+            array_to_Mat(buf.array(), buf.arrayOffset() + buf.position(), length, CvType.CV_32FC(channels), m);
+        } else {
+            if (length % channels != 0)
+                throw new IllegalArgumentException("length " + length + " is not a multiple of " + channels);
+            m.create(length / channels, 1, CvType.CV_32FC(channels));
+
+            float[] tmp = staging.get();
+            int chunk = tmp.length - tmp.length % channels;
+            int position = buf.position();
+            for (int done = 0; done < length; done += chunk) {
+                int n = Math.min(chunk, length - done);
+                buf.get(tmp, 0, n);
+                m.put(done / channels, 0, tmp, 0, n);
+            }
+            buf.position(position);
+        }
+    }
+
+    /**
+     * Copies the CV_32F data of m into buf from its position, advancing it.
+     * Returns the number of elements (rows * cols * channels) copied.
+     */
+    public static int Mat_to_buffer(Mat m, FloatBuffer buf) {
+        if (m.empty())
+            return 0;
+        if (m.depth() != CvType.CV_32F || !m.isContinuous())
+            throw new IllegalArgumentException("Input Mat should be a continuous CV_32F Mat\n" + m);
+        int length = (int) m.total() * m.channels();
+        if (buf.remaining() < length)
+            throw new BufferOverflowException();
+
+        if (buf.hasArray()) {
+            if (length > 0)
+                m.get(0, 0, buf.array(), buf.arrayOffset() + buf.position(), length);
+            buf.position(buf.position() + length);
+        } else {
+            float[] tmp = staging.get();
+            int channels = m.channels();
+            int cols = m.cols();
+            int chunk = tmp.length - tmp.length % channels;
+            for (int done = 0; done < length; done += chunk) {
+                int n = Math.min(chunk, length - done);
+                int element = done / channels;
+                m.get(element / cols, element % cols, tmp, 0, n);
+                buf.put(tmp, 0, n);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Packs a detector output holding one small CV_32F Mat per item, such
+     * as the 1x4 CV_32FC2 marker corners of ArucoDetector, into packed with
+     * one vconcat, then copies it into fs from offset with a single get.
+     * Returns the number of floats copied, 8 per marker for corners.
+     */
+    public static int vector_Mat_to_array_float(List<Mat> mats, Mat packed, float[] fs, int offset) {
+        if (!pack(mats, packed))
+            return 0;
+        int length = (int) packed.total() * packed.channels();
+        packed.get(0, 0, fs, offset, length);
+        return length;
+    }
+
+    /**
+     * Buffer variant of vector_Mat_to_array_float, writing from the buffer
+     * position and advancing it.
+     */
+    public static int vector_Mat_to_buffer(List<Mat> mats, Mat packed, FloatBuffer buf) {
+        if (!pack(mats, packed))
+            return 0;
+        return Mat_to_buffer(packed, buf);
+    }
+
+    private static boolean pack(List<Mat> mats, Mat packed) {
+        if (mats == null || mats.isEmpty()) {
+            packed.release();
+            return false;
+        }
+        Core.vconcat(mats, packed);
+        if (packed.depth() != CvType.CV_32F)
+            throw new IllegalArgumentException("Input Mats should be CV_32F\n" + packed);
+        return true;
+    }
+
+    private static void array_to_Mat(float[] data, int offset, int length, int type, Mat m) {
+        int channels = CvType.channels(type);
+        if (length % channels != 0)
+            throw new IllegalArgumentException("length " + length + " is not a multiple of " + channels);
+        m.create(length / channels, 1, type);
+        if (length > 0)
+            m.put(0, 0, data, offset, length);
+    }
+
+    private static void array_to_Mat(double[] data, int offset, int length, int type, Mat m) {
+        int channels = CvType.channels(type);
+        if (length % channels != 0)
+            throw new IllegalArgumentException("length " + length + " is not a multiple of " + channels);
+        m.create(length / channels, 1, type);
+        if (length > 0)
+            m.put(0, 0, data, offset, length);
+    }
+
+    private static void array_to_Mat(int[] data, int offset, int length, int type, Mat m) {
+        int channels = CvType.channels(type);
+        if (length % channels != 0)
+            throw new IllegalArgumentException("length " + length + " is not a multiple of " + channels);
+        m.create(length / channels, 1, type);
+        if (length > 0)
+            m.put(0, 0, data, offset, length);
+    }
+
+    private static int Mat_to_array(Mat m, int channels, int depth, float[] data, int offset) {
+        int count = checkedCount(m, channels, depth);
+        if (count > 0)
+            m.get(0, 0, data, offset, count * channels);
+        return count;
+    }
+
+    private static int Mat_to_array(Mat m, int channels, int depth, double[] data, int offset) {
+        int count = checkedCount(m, channels, depth);
+        if (count > 0)
+            m.get(0, 0, data, offset, count * channels);
+        return count;
+    }
+
+    private static int Mat_to_array(Mat m, int channels, int depth, int[] data, int offset) {
+        int count = checkedCount(m, channels, depth);
+        if (count > 0)
+            m.get(0, 0, data, offset, count * channels);
+        return count;
+    }
+
+    private static int checkedCount(Mat m, int channels, int depth) {
+        if (m.empty())
+            return 0;
+        int count = m.checkVector(channels, depth);
+        if (count < 0)
+            throw new IllegalArgumentException(
+                    "Input Mat should be a continuous " + CvType.typeToString(CvType.makeType(depth, channels)) + " vector\n" + m);
+        return count;
+    }
 }